@@ -0,0 +1,344 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import sirius.kernel.commons.Context;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.health.Exceptions;
+import sirius.search.properties.DoubleProperty;
+import sirius.search.properties.IntProperty;
+import sirius.search.properties.LongProperty;
+import sirius.search.properties.Property;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Performs an atomic, server side modification of a single entity.
+ * <p>
+ * Instead of loading an entity, modifying it and writing it back (which requires an optimistic lock and a retry in
+ * case of concurrent modifications), the modifications are sent as script to ElasticSearch and applied there.
+ * This is especially useful for counters or lists which are modified concurrently by many threads or nodes.
+ * <p>
+ * Note that neither the save checks and handlers of the entity, nor the foreign key updates are executed, as
+ * the entity is never written as a whole. Use {@link IndexAccess#atomicUpdate(Entity)} to create an instance.
+ *
+ * @param <E> the type of the entity to update
+ */
+public class AtomicUpdate<E extends Entity> {
+
+    private static final String LANGUAGE_PAINLESS = "painless";
+    private static final int DEFAULT_RETRIES_ON_CONFLICT = 5;
+
+    private final IndexAccess index;
+    private final E entity;
+    private final EntityDescriptor descriptor;
+    private final StringBuilder script = new StringBuilder();
+    private final Context params = Context.create();
+    private final Set<String> touchedFields = new LinkedHashSet<>();
+    private int retryOnConflict = DEFAULT_RETRIES_ON_CONFLICT;
+
+    /**
+     * Creates a new update for the given entity.
+     *
+     * @param index  the IndexAccess instance
+     * @param entity the entity to update
+     */
+    protected AtomicUpdate(IndexAccess index, E entity) {
+        if (entity.isNew()) {
+            throw new IllegalArgumentException("Cannot atomically update a new entity: " + entity.getClass()
+                                                                                                .getName());
+        }
+        this.index = index;
+        this.entity = entity;
+        this.descriptor = index.getDescriptor(entity.getClass());
+    }
+
+    /**
+     * Increments the given numeric field by the given amount.
+     * <p>
+     * If the field is <tt>null</tt> in the database, it is treated as <tt>0</tt>.
+     *
+     * @param field the name of the field to increment
+     * @param delta the amount to add
+     * @return the update itself for fluent method calls
+     */
+    public AtomicUpdate<E> increment(String field, Number delta) {
+        Property property = findProperty(field);
+        if (!(property instanceof LongProperty
+              || property instanceof IntProperty
+              || property instanceof DoubleProperty)) {
+            throw new IllegalArgumentException("Cannot increment the non numeric field: " + field);
+        }
+        String param = addParameter(delta);
+        script.append(fieldAccess(field))
+              .append(" = (")
+              .append(fieldAccess(field))
+              .append(" == null ? 0 : ")
+              .append(fieldAccess(field))
+              .append(") + params.")
+              .append(param)
+              .append(";");
+        return this;
+    }
+
+    /**
+     * Decrements the given numeric field by the given amount.
+     *
+     * @param field the name of the field to decrement
+     * @param delta the amount to subtract
+     * @return the update itself for fluent method calls
+     * @see #increment(String, Number)
+     */
+    public AtomicUpdate<E> decrement(String field, Number delta) {
+        if (delta instanceof Double || delta instanceof Float) {
+            return increment(field, -delta.doubleValue());
+        }
+        return increment(field, -delta.longValue());
+    }
+
+    /**
+     * Sets the given field to the given value.
+     *
+     * @param field the name of the field to set
+     * @param value the new value, which is converted by the property just like a regular field value
+     * @return the update itself for fluent method calls
+     */
+    public AtomicUpdate<E> set(String field, Object value) {
+        Property property = findProperty(field);
+        String param = addParameter(property.transformValueToSource(value));
+        script.append(fieldAccess(field)).append(" = params.").append(param).append(";");
+        return this;
+    }
+
+    /**
+     * Appends the given element to the given list field.
+     *
+     * @param field the name of the list field to modify
+     * @param value the element to append
+     * @return the update itself for fluent method calls
+     */
+    public AtomicUpdate<E> append(String field, Object value) {
+        String param = addParameter(transformListElement(findListProperty(field), value));
+        script.append("if (")
+              .append(fieldAccess(field))
+              .append(" == null) { ")
+              .append(fieldAccess(field))
+              .append(" = []; } ")
+              .append(fieldAccess(field))
+              .append(".add(params.")
+              .append(param)
+              .append(");");
+        return this;
+    }
+
+    /**
+     * Appends the given element to the given list field unless it is already contained.
+     *
+     * @param field the name of the list field to modify
+     * @param value the element to append
+     * @return the update itself for fluent method calls
+     */
+    public AtomicUpdate<E> appendIfAbsent(String field, Object value) {
+        String param = addParameter(transformListElement(findListProperty(field), value));
+        script.append("if (")
+              .append(fieldAccess(field))
+              .append(" == null) { ")
+              .append(fieldAccess(field))
+              .append(" = []; } if (!")
+              .append(fieldAccess(field))
+              .append(".stream().anyMatch(v -> ")
+              .append(elementMatches(param))
+              .append(")) { ")
+              .append(fieldAccess(field))
+              .append(".add(params.")
+              .append(param)
+              .append("); }");
+        return this;
+    }
+
+    /**
+     * Removes all occurrences of the given element from the given list field.
+     *
+     * @param field the name of the list field to modify
+     * @param value the element to remove
+     * @return the update itself for fluent method calls
+     */
+    public AtomicUpdate<E> remove(String field, Object value) {
+        String param = addParameter(transformListElement(findListProperty(field), value));
+        script.append("if (")
+              .append(fieldAccess(field))
+              .append(" != null) { ")
+              .append(fieldAccess(field))
+              .append(".removeIf(v -> ")
+              .append(elementMatches(param))
+              .append("); }");
+        return this;
+    }
+
+    /**
+     * Specifies how often the update is re-tried by ElasticSearch in case of a concurrent modification.
+     * <p>
+     * As the script is applied to the current state of the document, retrying is safe. By default the update is
+     * re-tried five times.
+     *
+     * @param retryOnConflict the number of retries to perform
+     * @return the update itself for fluent method calls
+     */
+    public AtomicUpdate<E> retryOnConflict(int retryOnConflict) {
+        this.retryOnConflict = retryOnConflict;
+        return this;
+    }
+
+    /**
+     * Sends the update to ElasticSearch and applies the resulting values of all modified fields to the entity.
+     *
+     * @return the new version of the entity
+     */
+    public long execute() {
+        if (touchedFields.isEmpty()) {
+            return entity.getVersion();
+        }
+        try {
+            UpdateRequestBuilder urb = index.getClient()
+                                            .prepareUpdate()
+                                            .setIndex(index.getSchema().getIndex(entity))
+                                            .setType(descriptor.getType())
+                                            .setId(entity.getId())
+                                            .setRetryOnConflict(retryOnConflict)
+                                            .setFetchSource(touchedFields.toArray(new String[touchedFields.size()]),
+                                                            null)
+                                            .setScript(new Script(ScriptType.INLINE,
+                                                                  LANGUAGE_PAINLESS,
+                                                                  script.toString(),
+                                                                  params));
+            index.applyRouting("Updating", entity, descriptor, urb::setRouting);
+            if (IndexAccess.LOG.isFINE()) {
+                IndexAccess.LOG.FINE("ATOMIC-UPDATE: %s.%s: %s: %s",
+                                     index.getSchema().getIndex(entity),
+                                     descriptor.getType(),
+                                     entity.getId(),
+                                     script);
+            }
+
+            Watch w = Watch.start();
+            UpdateResponse response = urb.execute().actionGet();
+            index.queryDuration.addValue(w.elapsedMillis());
+            w.submitMicroTiming("ES", "ATOMIC-UPDATE " + entity.getClass().getName());
+
+            applyResult(response);
+            index.traceChange(entity);
+            index.mirrorStoredState(entity, descriptor);
+            return entity.getVersion();
+        } catch (VersionConflictEngineException e) {
+            index.optimisticLockErrors.inc();
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to atomically update '%s' (%s) after %s retries: %s (%s)",
+                                                    entity.getId(),
+                                                    entity.getClass().getName(),
+                                                    retryOnConflict)
+                            .handle();
+        } catch (DocumentMissingException e) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Cannot atomically update '%s' (%s) as it no longer exists: %s (%s)",
+                                                    entity.getId(),
+                                                    entity.getClass().getName())
+                            .handle();
+        } catch (Exception e) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to atomically update '%s' (%s): %s (%s)",
+                                                    entity.getId(),
+                                                    entity.getClass().getName())
+                            .handle();
+        }
+    }
+
+    private void applyResult(UpdateResponse response) {
+        entity.setVersion(response.getVersion());
+        GetResult result = response.getGetResult();
+        if (result == null || !result.isExists()) {
+            return;
+        }
+        Map<String, Object> source = result.sourceAsMap();
+        for (String field : touchedFields) {
+            descriptor.getProperty(field).readFromSource(entity, source.get(field));
+        }
+    }
+
+    private Property findProperty(String field) {
+        Property property = descriptor.getProperty(field);
+        if (property == null) {
+            throw new IllegalArgumentException(String.format("Unknown field '%s' in type %s",
+                                                             field,
+                                                             descriptor.getType()));
+        }
+        touchedFields.add(field);
+        return property;
+    }
+
+    private Property findListProperty(String field) {
+        Property property = findProperty(field);
+        if (!List.class.isAssignableFrom(property.getField().getType())) {
+            throw new IllegalArgumentException("Cannot modify the non list field: " + field);
+        }
+        return property;
+    }
+
+    private Object transformListElement(Property property, Object value) {
+        Object transformed = property.transformValueToSource(Collections.singletonList(value));
+        if (transformed instanceof List<?> && ((List<?>) transformed).size() == 1) {
+            return ((List<?>) transformed).get(0);
+        }
+        return value;
+    }
+
+    /*
+     * Generates a condition which checks if the list element v equals the given parameter. As the numbers within
+     * a document are parsed into the smallest fitting type, numbers are compared by their value rather than their
+     * type (e.g. an Integer element matches a Long parameter).
+     */
+    private String elementMatches(String param) {
+        String value = "params." + param;
+        return "(v instanceof Number && "
+               + value
+               + " instanceof Number ? ((Number) v).doubleValue() == ((Number) "
+               + value
+               + ").doubleValue() && ((Number) v).longValue() == ((Number) "
+               + value
+               + ").longValue() : Objects.equals(v, "
+               + value
+               + "))";
+    }
+
+    private String addParameter(Object value) {
+        String name = "p" + params.size();
+        params.put(name, value);
+        return name;
+    }
+
+    private String fieldAccess(String field) {
+        return "ctx._source['" + field + "']";
+    }
+}
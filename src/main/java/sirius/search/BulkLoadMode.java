@@ -0,0 +1,240 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.common.settings.Settings;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.health.Exceptions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes the settings of indices which are about to receive a large amount of documents.
+ * <p>
+ * While active, the refresh of an index is disabled and its replicas are removed, so that ElasticSearch neither
+ * has to refresh nor to replicate continuously. Once the bulk load is finished, the original settings are restored.
+ * Bulk loads may be nested or run concurrently for the same index, as the settings are only restored once the last
+ * bulk load for an index has finished.
+ * <p>
+ * Use {@link IndexAccess#bulkLoad(Collection, boolean, Runnable)} rather than using this class directly.
+ * <p>
+ * Only the bookkeeping is synchronized. The settings of an index are changed while holding the lock of its state
+ * and a force merge is performed without holding any lock, so that slow requests don't block other bulk loads.
+ * <p>
+ * Note that the original settings are only kept in memory. All active bulk loads are finished when the system is
+ * shut down (see {@link IndexLifecycle}), a crashed node however leaves the indices in bulk load mode.
+ */
+class BulkLoadMode {
+
+    private static final String SETTING_REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String SETTING_NUMBER_OF_REPLICAS = "index.number_of_replicas";
+
+    private final IndexAccess access;
+    private final Map<String, IndexState> activeIndices = new HashMap<>();
+
+    /**
+     * Contains the number of active bulk loads of an index and its settings before the bulk load started.
+     * <p>
+     * The number of bulk loads is guarded by the surrounding {@link BulkLoadMode}, all other fields are guarded by
+     * the state itself, so that the settings of an index are always changed sequentially.
+     */
+    private static class IndexState {
+        private int activeBulkLoads;
+        private boolean tuned;
+        private String refreshInterval;
+        private String numberOfReplicas;
+    }
+
+    BulkLoadMode(IndexAccess access) {
+        this.access = access;
+    }
+
+    /**
+     * Switches the given indices into bulk load mode.
+     * <p>
+     * If one of the indices cannot be switched, the bulk load is finished for all indices which have already been
+     * switched, so that the caller doesn't need to call {@link #finish(Collection, boolean)}.
+     *
+     * @param indices the full names of the indices to tune (including the index prefix)
+     */
+    void start(Collection<String> indices) {
+        List<String> startedIndices = new ArrayList<>();
+        try {
+            for (String index : indices) {
+                startedIndices.add(index);
+                start(index);
+            }
+        } catch (Exception e) {
+            finish(startedIndices, false);
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Cannot start a bulk load for %s: %s (%s)", indices)
+                            .handle();
+        }
+    }
+
+    private void start(String index) {
+        IndexState state;
+        synchronized (this) {
+            state = activeIndices.computeIfAbsent(index, ignored -> new IndexState());
+            state.activeBulkLoads++;
+        }
+        synchronized (state) {
+            if (!state.tuned) {
+                readSettings(index, state);
+                updateSettings(index,
+                               Settings.builder()
+                                       .put(SETTING_REFRESH_INTERVAL, "-1")
+                                       .put(SETTING_NUMBER_OF_REPLICAS, 0));
+                state.tuned = true;
+                IndexAccess.LOG.INFO("Started bulk load for %s", index);
+            }
+        }
+    }
+
+    private void readSettings(String index, IndexState state) {
+        GetSettingsResponse res = access.getClient().admin().indices().prepareGetSettings(index).get();
+        // The index might also be an alias, therefore we use the settings of the first (and only) physical index...
+        Iterator<Settings> iter = res.getIndexToSettings().valuesIt();
+        if (!iter.hasNext()) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .withSystemErrorMessage("Cannot start a bulk load for %s: Unknown index", index)
+                            .handle();
+        }
+        Settings settings = iter.next();
+        state.refreshInterval = settings.get(SETTING_REFRESH_INTERVAL);
+        state.numberOfReplicas = settings.get(SETTING_NUMBER_OF_REPLICAS);
+    }
+
+    private void updateSettings(String index, Settings.Builder settings) {
+        access.getClient().admin().indices().prepareUpdateSettings(index).setSettings(settings).get();
+    }
+
+    /**
+     * Finishes the bulk load for the given indices.
+     * <p>
+     * If no other bulk load is active for an index, its original settings are restored.
+     *
+     * @param indices    the full names of the indices which have been loaded
+     * @param forceMerge determines if the indices should be force merged after restoring their settings
+     */
+    void finish(Collection<String> indices, boolean forceMerge) {
+        List<String> finishedIndices = new ArrayList<>();
+        for (String index : indices) {
+            if (finish(index)) {
+                finishedIndices.add(index);
+            }
+        }
+
+        if (forceMerge && !finishedIndices.isEmpty()) {
+            forceMerge(finishedIndices);
+        }
+    }
+
+    private boolean finish(String index) {
+        IndexState state;
+        synchronized (this) {
+            state = activeIndices.get(index);
+            if (state == null || --state.activeBulkLoads > 0) {
+                return false;
+            }
+        }
+
+        boolean restored = false;
+        synchronized (state) {
+            // A bulk load might have been started in the meantime, which then keeps using the tuned settings...
+            if (state.tuned && !isActive(state)) {
+                restore(index, state);
+                restored = true;
+            }
+        }
+
+        synchronized (this) {
+            if (!isActive(state)) {
+                activeIndices.remove(index, state);
+            }
+        }
+
+        return restored;
+    }
+
+    private synchronized boolean isActive(IndexState state) {
+        return state.activeBulkLoads > 0;
+    }
+
+    /**
+     * Finishes all active bulk loads, e.g. as the system is shutting down.
+     */
+    void finishAll() {
+        List<Map.Entry<String, IndexState>> states;
+        synchronized (this) {
+            states = new ArrayList<>(activeIndices.entrySet());
+            activeIndices.clear();
+        }
+        for (Map.Entry<String, IndexState> entry : states) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().tuned) {
+                    restore(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private void restore(String index, IndexState state) {
+        state.tuned = false;
+        try {
+            Settings.Builder settings = Settings.builder();
+            if (state.refreshInterval == null) {
+                settings.putNull(SETTING_REFRESH_INTERVAL);
+            } else {
+                settings.put(SETTING_REFRESH_INTERVAL, state.refreshInterval);
+            }
+            if (state.numberOfReplicas != null) {
+                settings.put(SETTING_NUMBER_OF_REPLICAS, state.numberOfReplicas);
+            }
+            updateSettings(index, settings);
+            IndexAccess.LOG.INFO("Finished bulk load for %s", index);
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to restore the settings of %s after a bulk load: %s (%s)",
+                                              index)
+                      .handle();
+        }
+    }
+
+    private void forceMerge(List<String> indices) {
+        try {
+            Watch w = Watch.start();
+            access.getClient()
+                  .admin()
+                  .indices()
+                  .prepareForceMerge(indices.toArray(new String[indices.size()]))
+                  .execute()
+                  .get(1, TimeUnit.HOURS);
+            IndexAccess.LOG.INFO("Force merged %s (%s)", indices, w.duration());
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to force merge %s: %s (%s)", indices)
+                      .handle();
+        }
+    }
+}
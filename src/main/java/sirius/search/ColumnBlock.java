@@ -0,0 +1,205 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.search.SearchHit;
+import sirius.search.properties.AmountProperty;
+import sirius.search.properties.DoubleProperty;
+import sirius.search.properties.IntProperty;
+import sirius.search.properties.LongProperty;
+import sirius.search.properties.Property;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contains the values of numeric fields for a block of matching entities, stored in primitive arrays.
+ * <p>
+ * Instances of this class are created by {@link Query#iterateColumns(ResultHandler)}. The values are read from
+ * the doc values of ElasticSearch, so that neither the <tt>_source</tt> needs to be fetched, nor do any entities
+ * have to be created. Integral fields ({@link LongProperty}, {@link IntProperty}) are available via
+ * {@link #getLongs(String)}, all supported fields (including {@link DoubleProperty} and {@link AmountProperty})
+ * are available via {@link #getDoubles(String)}.
+ */
+public class ColumnBlock {
+
+    private final String[] ids;
+    private final Map<String, long[]> longColumns = new HashMap<>();
+    private final Map<String, double[]> doubleColumns = new HashMap<>();
+    private final Map<String, BitSet> filledRows = new HashMap<>();
+    private int size;
+
+    /**
+     * Creates a new and empty block for the given columns.
+     *
+     * @param columns  the properties to fetch the values for
+     * @param capacity the maximal number of rows in this block
+     */
+    protected ColumnBlock(List<Property> columns, int capacity) {
+        this.ids = new String[capacity];
+        for (Property column : columns) {
+            if (isIntegral(column)) {
+                longColumns.put(column.getName(), new long[capacity]);
+            } else {
+                doubleColumns.put(column.getName(), new double[capacity]);
+            }
+            filledRows.put(column.getName(), new BitSet(capacity));
+        }
+    }
+
+    /**
+     * Determines if the given property can be fetched as column.
+     *
+     * @param property the property to check
+     * @return <tt>true</tt> if the property is numeric and can therefore be read from the doc values,
+     * <tt>false</tt> otherwise
+     */
+    public static boolean isSupported(Property property) {
+        return isIntegral(property) || property instanceof DoubleProperty || property instanceof AmountProperty;
+    }
+
+    private static boolean isIntegral(Property property) {
+        return property instanceof LongProperty || property instanceof IntProperty;
+    }
+
+    /**
+     * Adds the values of the given hit as next row.
+     *
+     * @param hit the hit to read the doc values from
+     */
+    protected void add(SearchHit hit) {
+        ids[size] = hit.getId();
+        for (Map.Entry<String, long[]> column : longColumns.entrySet()) {
+            Object value = readValue(hit, column.getKey());
+            if (value != null) {
+                column.getValue()[size] = value instanceof Number ?
+                                          ((Number) value).longValue() :
+                                          Long.parseLong(value.toString());
+            }
+        }
+        for (Map.Entry<String, double[]> column : doubleColumns.entrySet()) {
+            Object value = readValue(hit, column.getKey());
+            if (value != null) {
+                column.getValue()[size] = value instanceof Number ?
+                                          ((Number) value).doubleValue() :
+                                          Double.parseDouble(value.toString());
+            }
+        }
+        size++;
+    }
+
+    private Object readValue(SearchHit hit, String column) {
+        DocumentField field = hit.field(column);
+        if (field == null || field.getValue() == null) {
+            return null;
+        }
+        filledRows.get(column).set(size);
+        return field.getValue();
+    }
+
+    /**
+     * Determines if the block has reached its capacity.
+     *
+     * @return <tt>true</tt> if no more rows can be added, <tt>false</tt> otherwise
+     */
+    protected boolean isFull() {
+        return size == ids.length;
+    }
+
+    /**
+     * Returns the number of rows in this block.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determines if the block contains any rows.
+     *
+     * @return <tt>true</tt> if there is no row in this block, <tt>false</tt> otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the id of the entity in the given row.
+     *
+     * @param row the row to fetch the id for
+     * @return the id of the entity in the given row
+     */
+    public String getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Determines if the given column has a value in the given row.
+     * <p>
+     * Rows without a value contain <tt>0</tt> in the respective array.
+     *
+     * @param column the column to check
+     * @param row    the row to check
+     * @return <tt>true</tt> if a value is present, <tt>false</tt> otherwise
+     */
+    public boolean isFilled(String column, int row) {
+        return getFilledRows(column).get(row);
+    }
+
+    private BitSet getFilledRows(String column) {
+        BitSet result = filledRows.get(column);
+        if (result == null) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values of the given integral column.
+     *
+     * @param column the name of the column, which must be a {@link LongProperty} or {@link IntProperty}
+     * @return an array containing one value per row (its length is {@link #size()})
+     */
+    public long[] getLongs(String column) {
+        long[] values = longColumns.get(column);
+        if (values == null) {
+            getFilledRows(column);
+            throw new IllegalArgumentException("Column is not integral: " + column);
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns the values of the given column as floating point numbers.
+     * <p>
+     * Note that values of an {@link AmountProperty} are parsed into <tt>double</tt> and might therefore be subject
+     * to rounding.
+     *
+     * @param column the name of the column
+     * @return an array containing one value per row (its length is {@link #size()})
+     */
+    public double[] getDoubles(String column) {
+        double[] values = doubleColumns.get(column);
+        if (values != null) {
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+
+        long[] longs = getLongs(column);
+        double[] result = new double[longs.length];
+        for (int i = 0; i < longs.length; i++) {
+            result[i] = longs[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import sirius.kernel.async.TaskContext;
+import sirius.kernel.commons.RateLimit;
+import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.health.Exceptions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports entities from a stream of JSON objects using bulk requests.
+ * <p>
+ * The data can either be a JSON array of objects or JSON Lines (one object per line). Each object must contain a
+ * property named <tt>_type</tt> which determines the target entity and may contain <tt>_id</tt> to specify its ID.
+ * All other properties are read via {@link EntityDescriptor#readSource(Entity, Map)}. If the object contains a
+ * property named <tt>_source</tt> (as written by {@link Query#exportTo(java.io.OutputStream)}), the entity is read
+ * from this property instead.
+ * <p>
+ * The data is parsed incrementally, so that only the objects of the pending bulk requests are kept in memory.
+ * Note that the save checks of each entity ({@link Entity#beforeSave()}) are executed, but by default its save
+ * handlers and foreign keys are not, as the entities are written by bulk requests. Use {@link #runSaveHandlers()}
+ * to execute these once an entity has been written. Also, existing entities are overwritten unless
+ * {@link #createOnly()} is used.
+ */
+public class DatasetImporter {
+
+    private static final String TYPE_FIELD = "_type";
+    private static final String SOURCE_FIELD = "_source";
+
+    @ConfigValue("index.import.batchSize")
+    private static int defaultBatchSize;
+
+    @ConfigValue("index.import.parallelism")
+    private static int defaultParallelism;
+
+    private final IndexAccess access;
+    private int batchSize = defaultBatchSize;
+    private int parallelism = defaultParallelism;
+    private boolean tuneIndices;
+    private boolean createOnly;
+    private boolean runSaveHandlers;
+    private final Map<DocWriteRequest<?>, Entity> pendingEntities =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Set<String> tunedIndices = new TreeSet<>();
+    private final AtomicLong failures = new AtomicLong();
+    private long numObjects;
+
+    /**
+     * Creates a new importer which writes into the given index.
+     *
+     * @param access the index to import the data into
+     */
+    public DatasetImporter(IndexAccess access) {
+        this.access = access;
+    }
+
+    /**
+     * Specifies the number of entities written per bulk request.
+     *
+     * @param batchSize the number of entities per bulk request
+     * @return the importer itself for fluent method calls
+     */
+    public DatasetImporter withBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Specifies the number of bulk requests which are executed concurrently.
+     *
+     * @param parallelism the number of concurrent bulk requests
+     * @return the importer itself for fluent method calls
+     */
+    public DatasetImporter withParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Tunes all indices which receive data for a bulk load, while the import is running.
+     *
+     * @return the importer itself for fluent method calls
+     * @see IndexAccess#bulkLoad(java.util.Collection, boolean, Runnable)
+     */
+    public DatasetImporter tuneIndices() {
+        this.tuneIndices = true;
+        return this;
+    }
+
+    /**
+     * Only creates new entities, so that importing an entity which already exists is reported as failure.
+     *
+     * @return the importer itself for fluent method calls
+     */
+    public DatasetImporter createOnly() {
+        this.createOnly = true;
+        return this;
+    }
+
+    /**
+     * Executes the save handlers and foreign keys of each entity once it has been written.
+     * <p>
+     * Note that this requires to keep the entities of all pending bulk requests in memory.
+     *
+     * @return the importer itself for fluent method calls
+     * @see Entity#afterSave()
+     */
+    public DatasetImporter runSaveHandlers() {
+        this.runSaveHandlers = true;
+        return this;
+    }
+
+    /**
+     * Imports all objects read from the given stream.
+     * <p>
+     * Note that the stream is not closed by this method.
+     *
+     * @param input the stream to read the JSON array or JSON Lines from
+     * @return the number of objects which were read
+     * @throws IOException in case of an error while reading or parsing the data
+     */
+    public long importData(InputStream input) throws IOException {
+        Watch w = Watch.start();
+        BulkProcessor bulkProcessor = BulkProcessor.builder(access.getClient(), new ImportListener())
+                                                   .setBulkActions(batchSize)
+                                                   .setConcurrentRequests(parallelism - 1)
+                                                   .build();
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, input)) {
+            parseObjects(parser, bulkProcessor);
+        } finally {
+            awaitClose(bulkProcessor);
+            finishTuning();
+        }
+
+        if (failures.get() > 0) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .withSystemErrorMessage("Failed to import %s of %s objects. See the log for details.",
+                                                    failures.get(),
+                                                    numObjects)
+                            .handle();
+        }
+        IndexAccess.LOG.INFO("Imported %s objects (%s)", numObjects, w.duration());
+        return numObjects;
+    }
+
+    private void parseObjects(XContentParser parser, BulkProcessor bulkProcessor) throws IOException {
+        TaskContext ctx = TaskContext.get();
+        RateLimit rateLimit = RateLimit.timeInterval(5, TimeUnit.SECONDS);
+        XContentParser.Token token = parser.nextToken();
+        boolean jsonArray = token == XContentParser.Token.START_ARRAY;
+        if (jsonArray) {
+            token = parser.nextToken();
+        }
+
+        // JSON Lines are parsed as a sequence of root level objects...
+        while (token == XContentParser.Token.START_OBJECT && ctx.isActive()) {
+            importObject(parser.map(), bulkProcessor);
+            numObjects++;
+            if (rateLimit.check()) {
+                ctx.setState("Importing... (%s objects)", numObjects);
+            }
+            token = parser.nextToken();
+        }
+
+        if (token != null && !(jsonArray && token == XContentParser.Token.END_ARRAY)) {
+            throw new IOException(Strings.apply("Unexpected token %s after %s objects", token, numObjects));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void importObject(Map<String, Object> obj, BulkProcessor bulkProcessor) {
+        Object type = obj.get(TYPE_FIELD);
+        Class<? extends Entity> entityClass = type == null ? null : access.getType(String.valueOf(type));
+        if (entityClass == null) {
+            throw new IllegalArgumentException("No Entity found with type \"" + type + "\"");
+        }
+        EntityDescriptor descriptor = access.getDescriptor(entityClass);
+        Entity entity = descriptor.newInstance();
+        Object id = obj.get(IndexAccess.ID_FIELD);
+        if (id != null) {
+            entity.setId(String.valueOf(id));
+        }
+        Object source = obj.get(SOURCE_FIELD);
+        descriptor.readSource(entity, source instanceof Map ? (Map<String, Object>) source : obj);
+        entity.beforeSave();
+
+        String index = access.getSchema().getIndex(entity);
+        if (tuneIndices && tunedIndices.add(index)) {
+            access.bulkLoadMode.start(Collections.singletonList(index));
+        }
+        String effectiveId = entity.isNew() ? entity.computePossibleId() : entity.getId();
+        IndexRequestBuilder irb = access.getClient()
+                                        .prepareIndex(index, descriptor.getType(), effectiveId)
+                                        .setCreate(createOnly)
+                                        .setSource(descriptor.writeSource(entity), XContentType.JSON);
+        access.applyRouting("Importing", entity, descriptor, irb::setRouting);
+        if (runSaveHandlers) {
+            pendingEntities.put(irb.request(), entity);
+        }
+        bulkProcessor.add(irb.request());
+    }
+
+    private void awaitClose(BulkProcessor bulkProcessor) {
+        try {
+            bulkProcessor.awaitClose(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Exceptions.ignore(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void finishTuning() {
+        if (!tunedIndices.isEmpty()) {
+            access.bulkLoadMode.finish(tunedIndices, false);
+            access.getClient().admin().indices().prepareRefresh(tunedIndices.toArray(new String[0])).get();
+        }
+    }
+
+    /**
+     * Records all failures reported by the bulk processor.
+     */
+    private class ImportListener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            // Nothing to do here...
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            if (response.hasFailures()) {
+                long failedItems = Arrays.stream(response.getItems()).filter(BulkItemResponse::isFailed).count();
+                failures.addAndGet(failedItems);
+                IndexAccess.LOG.WARN("Failed to import %s objects: %s", failedItems, response.buildFailureMessage());
+            }
+            if (runSaveHandlers) {
+                for (int i = 0; i < response.getItems().length; i++) {
+                    completed(pendingEntities.remove(request.requests().get(i)), response.getItems()[i]);
+                }
+            }
+        }
+
+        private void completed(Entity entity, BulkItemResponse item) {
+            if (entity == null || item.isFailed()) {
+                return;
+            }
+            try {
+                entity.id = item.getId();
+                entity.version = item.getVersion();
+                entity.afterSave();
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                Exceptions.handle()
+                          .to(IndexAccess.LOG)
+                          .error(e)
+                          .withSystemErrorMessage("Failed to run the save handlers of %s (%s): %s (%s)",
+                                                  entity.getClass().getSimpleName(),
+                                                  entity.getId())
+                          .handle();
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            request.requests().forEach(pendingEntities::remove);
+            failures.addAndGet(request.numberOfActions());
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(failure)
+                      .withSystemErrorMessage("Failed to import %s objects: %s (%s)", request.numberOfActions())
+                      .handle();
+        }
+    }
+}
@@ -12,6 +12,7 @@ import com.google.common.base.Objects;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.BaseEncoding;
+import org.elasticsearch.common.bytes.BytesReference;
 import sirius.kernel.commons.Strings;
 import sirius.kernel.commons.Tuple;
 import sirius.kernel.di.std.Part;
@@ -70,12 +71,30 @@ public abstract class Entity {
     @Transient
     protected Map<String, Object> source;
 
+    /**
+     * Raw source as loaded from the database, which is only parsed into {@link #source} once it is actually needed
+     */
+    @Transient
+    protected BytesReference originalSource;
+
+    /**
+     * Determines if this entity was loaded for reading only and must therefore not be saved
+     */
+    @Transient
+    protected boolean readOnly;
+
     /**
      * Should foreign keys be skipped after updating an entity. This can be used to escape cyclic dependencies
      */
     @Transient
     protected boolean skipForeignKeys;
 
+    /**
+     * Should the entity be written on the next update, even if none of its properties changed
+     */
+    @Transient
+    protected boolean forceUpdate;
+
     /**
      * Contains all named queries which matched this entity
      */
@@ -91,11 +110,12 @@ public abstract class Entity {
     /**
      * Creates and initializes a new instance.
      * <p>
-     * All mapped properties will be initialized by their {@link Property} if necessary.
+     * All mapped properties will be initialized by their {@link Property} if necessary (see
+     * {@link EntityDescriptor#getInitializers()}).
      */
     protected Entity() {
         if (index != null && index.schema != null) {
-            for (Property p : index.getDescriptor(getClass()).getProperties()) {
+            for (Property p : index.getDescriptor(getClass()).getInitializers()) {
                 try {
                     p.init(this);
                 } catch (Exception e) {
@@ -571,6 +591,17 @@ public abstract class Entity {
         skipForeignKeys = true;
     }
 
+    /**
+     * Forces the next update of this entity to be written into the database, even if none of its properties changed.
+     * <p>
+     * By default, {@link IndexAccess#update(Entity)} skips the write if an entity which was loaded from the database
+     * is unchanged. This can be used to enforce a re-index, e.g. after the mapping has been changed. Once the entity
+     * has been written, subsequent updates are skipped again if nothing changed.
+     */
+    public void forceUpdate() {
+        forceUpdate = true;
+    }
+
     /**
      * Executes the {@link sirius.search.ForeignKey#onSave(Entity)} handlers on all foreign keys...
      */
@@ -638,14 +669,21 @@ public abstract class Entity {
     }
 
     private Object createModificationProtectedValue(Object value) {
-        Object protectedValue = value;
         if (value instanceof List<?>) {
-            protectedValue = new ArrayList<>((List<?>) value);
+            List<Object> protectedList = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                protectedList.add(createModificationProtectedValue(element));
+            }
+            return protectedList;
         }
         if (value instanceof Map<?, ?>) {
-            protectedValue = new HashMap<>((Map<?, ?>) value);
+            Map<Object, Object> protectedMap = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                protectedMap.put(entry.getKey(), createModificationProtectedValue(entry.getValue()));
+            }
+            return protectedMap;
         }
-        return protectedValue;
+        return value;
     }
 
     /**
@@ -696,6 +734,59 @@ public abstract class Entity {
      */
     protected void initSourceTracing() {
         source = Maps.newTreeMap();
+        originalSource = null;
+    }
+
+    /**
+     * Enables tracking of source fields based on the raw source as loaded from the database.
+     * <p>
+     * In contrast to {@link #initSourceTracing()}, the original values are only parsed (and copied) once they are
+     * actually needed, e.g. when checking for changes before saving. Therefore entities which are loaded but never
+     * modified don't keep a second copy of all their values around. This has to be called after the values have been
+     * read into the entity.
+     *
+     * @param rawSource the source of the entity as loaded from the database
+     */
+    protected void initLazySourceTracing(BytesReference rawSource) {
+        source = null;
+        originalSource = rawSource;
+    }
+
+    /**
+     * Marks the entity as read only. Such entities don't track their source and will be rejected when being saved.
+     * <p>
+     * This will be set by {@link Query#readOnly()} and {@link IndexAccess#findReadOnly(Class, String)}.
+     */
+    protected void markReadOnly() {
+        readOnly = true;
+        source = null;
+        originalSource = null;
+    }
+
+    /**
+     * Determines if the entity was loaded for reading only.
+     *
+     * @return <tt>true</tt> if the entity was loaded via a read only query and must not be saved, <tt>false</tt>
+     * otherwise
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /*
+     * Returns the tracked source, parsing the original source first if lazy source tracing is active
+     */
+    private Map<String, Object> getTrackedSource() {
+        if (source == null && originalSource != null) {
+            BytesReference rawSource = originalSource;
+            originalSource = null;
+            EntityDescriptor descriptor = index.getDescriptor(getClass());
+            Entity snapshot = descriptor.newInstance();
+            snapshot.initSourceTracing();
+            descriptor.readSource(snapshot, rawSource);
+            source = snapshot.source;
+        }
+        return source;
     }
 
     /**
@@ -704,11 +795,13 @@ public abstract class Entity {
      * This is used by {@link Property#readFromSource(Entity, Object)}.
      *
      * @param name name of the field
-     * @param val  persisted value of the field.
+     * @param val  persisted value of the field (in its storable representation, as created by
+     *             {@link Property#writeToSource(Entity)}).
      */
     public void setSource(String name, Object val) {
-        if (source != null) {
-            source.put(name, createModificationProtectedValue(val));
+        Map<String, Object> trackedSource = getTrackedSource();
+        if (trackedSource != null) {
+            trackedSource.put(name, createModificationProtectedValue(val));
         }
     }
 
@@ -716,12 +809,85 @@ public abstract class Entity {
      * Checks if the given field has changed (since the entity was loaded from the database).
      *
      * @param field the field to check
-     * @param value the current value which is to be compared
+     * @param value the current (storable) value which is to be compared
      * @return <tt>true</tt> if the value loaded from the database is not equal to the given value, <tt>false</tt>
      * otherwise.
      */
     protected boolean isChanged(String field, Object value) {
-        return source != null && !Objects.equal(value, source.get(field));
+        Map<String, Object> trackedSource = getTrackedSource();
+        return trackedSource != null && !Objects.equal(value, trackedSource.get(field));
+    }
+
+    /**
+     * Determines if the original state of this entity (as loaded from the database) is known.
+     *
+     * @return <tt>true</tt> if source tracing is enabled for this entity, <tt>false</tt> otherwise
+     */
+    public boolean isSourceTracingEnabled() {
+        return source != null || originalSource != null;
+    }
+
+    /**
+     * Computes the storable values of all properties which changed since the entity was loaded.
+     *
+     * @return a map containing the storable value of each changed property or <tt>null</tt> if source tracing is
+     * not enabled for this entity
+     */
+    @Nullable
+    protected Map<String, Object> getChangedSource() {
+        if (!isSourceTracingEnabled()) {
+            return null;
+        }
+        Map<String, Object> changes = Maps.newTreeMap();
+        for (Property p : index.getDescriptor(getClass()).getProperties()) {
+            Object value = p.writeToSource(this);
+            if (isChanged(p.getName(), value)) {
+                changes.put(p.getName(), value);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Determines if any persisted property differs from the source loaded from the database.
+     *
+     * @return <tt>true</tt> if at least one property changed or if source tracing is not enabled, <tt>false</tt>
+     * otherwise
+     */
+    public boolean isAnyPropertyChanged() {
+        if (!isSourceTracingEnabled()) {
+            return true;
+        }
+        for (Property p : index.getDescriptor(getClass()).getProperties()) {
+            if (isChanged(p.getName(), p.writeToSource(this))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Updates the tracked source once the given values have been written into the database.
+     *
+     * @param writtenSource the storable values which have been persisted
+     */
+    protected void updateSourceSnapshot(Map<String, Object> writtenSource) {
+        if (isSourceTracingEnabled()) {
+            writtenSource.forEach(this::setSource);
+        }
+    }
+
+    /**
+     * Updates the tracked source once the entity has been written into the database as a whole.
+     */
+    protected void updateSourceSnapshot() {
+        if (isSourceTracingEnabled()) {
+            // As all values are replaced, there is no need to parse a pending original source
+            initSourceTracing();
+            for (Property p : index.getDescriptor(getClass()).getProperties()) {
+                setSource(p.getName(), p.writeToSource(this));
+            }
+        }
     }
 
     /**
@@ -9,8 +9,16 @@
 package sirius.search;
 
 import com.google.common.base.Objects;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
 import sirius.kernel.commons.Reflection;
 import sirius.kernel.commons.Strings;
 import sirius.kernel.health.Exceptions;
@@ -23,11 +31,17 @@ import sirius.search.properties.PropertyFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Contains metadata collected by inspecting an entity class (subclass of {@link Entity}).
@@ -37,13 +51,23 @@ import java.util.Map;
  */
 public class EntityDescriptor {
 
+    /**
+     * Contains the per thread buffer used to render the JSON source of entities.
+     */
+    private static final ThreadLocal<BytesStreamOutput> SOURCE_BUFFERS =
+            ThreadLocal.withInitial(BytesStreamOutput::new);
+
     private final String indexName;
     private final String annotatedIndexName;
     private String typeName;
     private String routing;
     private boolean useAllField;
+    private boolean writeBehind;
     private final Class<?> clazz;
     protected List<Property> properties;
+    protected List<Property> initializers;
+    protected Map<String, Integer> propertyPositions;
+    private MethodHandle instantiator;
     protected List<ForeignKey> foreignKeys;
     protected List<ForeignKey> remoteForeignKeys = new ArrayList<>();
 
@@ -69,6 +93,7 @@ public class EntityDescriptor {
         this.useAllField = clazz.getAnnotation(Indexed.class).useAllField();
         this.typeName = Strings.firstFilled(indexedAnnotation.type(), clazz.getSimpleName());
         this.routing = indexedAnnotation.routing();
+        this.writeBehind = indexedAnnotation.writeBehind();
 
         if (Strings.isEmpty(routing)) {
             routing = null;
@@ -85,6 +110,12 @@ public class EntityDescriptor {
             List<Property> props = new ArrayList<>();
             List<ForeignKey> keys = new ArrayList<>();
             addProperties(clazz, clazz, props, keys);
+            initializers = props.stream().filter(Property::requiresInit).collect(Collectors.toList());
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < props.size(); i++) {
+                positions.put(props.get(i).getName(), i);
+            }
+            propertyPositions = positions;
             properties = props;
             foreignKeys = keys;
         }
@@ -92,6 +123,55 @@ public class EntityDescriptor {
         return properties;
     }
 
+    /**
+     * Returns all properties which need to initialize the fields of new entities.
+     *
+     * @return the list of properties which override {@link Property#init(Entity)}
+     */
+    public List<Property> getInitializers() {
+        if (initializers == null) {
+            getProperties();
+        }
+        return initializers;
+    }
+
+    /**
+     * Creates a new instance of the entity class using a pre-compiled constructor handle.
+     *
+     * @return a new and initialized instance of the entity class
+     */
+    public Entity newInstance() {
+        if (instantiator == null) {
+            instantiator = createInstantiator();
+        }
+        try {
+            return (Entity) instantiator.invokeExact();
+        } catch (Throwable e) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Cannot create an instance of %s: %s (%s)", clazz.getName())
+                            .handle();
+        }
+    }
+
+    private MethodHandle createInstantiator() {
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return MethodHandles.lookup()
+                                .unreflectConstructor(constructor)
+                                .asType(MethodType.methodType(Entity.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Cannot access the default constructor of %s: %s (%s)",
+                                                    clazz.getName())
+                            .handle();
+        }
+    }
+
     /*
      * Adds all properties of the given class (and its superclasses)
      */
@@ -204,6 +284,43 @@ public class EntityDescriptor {
         }
     }
 
+    /**
+     * Writes the data of the given entity as JSON object into the given builder.
+     * <p>
+     * In contrast to {@link #writeTo(Entity, Map)} no intermediate map is created, as each property writes its value
+     * directly into the builder.
+     *
+     * @param entity  the entity to load the data from
+     * @param builder the builder to write the JSON object to
+     * @throws IOException in case of an io error while generating the JSON
+     */
+    public void writeTo(Entity entity, XContentBuilder builder) throws IOException {
+        builder.startObject();
+        for (Property p : getProperties()) {
+            p.writeToSource(entity, builder);
+        }
+        builder.endObject();
+    }
+
+    /**
+     * Serializes the data of the given entity into its JSON source as sent to ElasticSearch.
+     * <p>
+     * The buffer used to render the JSON is re-used per thread, therefore the returned bytes are a copy which
+     * can safely be handed to a request.
+     *
+     * @param entity the entity to serialize
+     * @return the JSON source of the entity
+     * @throws IOException in case of an io error while generating the JSON
+     */
+    public BytesReference writeSource(Entity entity) throws IOException {
+        BytesStreamOutput out = SOURCE_BUFFERS.get();
+        out.reset();
+        try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out)) {
+            writeTo(entity, builder);
+        }
+        return new BytesArray(BytesReference.toBytes(out.bytes()));
+    }
+
     /**
      * Converts the data in the given source map and stores it in the given entity.
      *
@@ -216,6 +333,78 @@ public class EntityDescriptor {
         }
     }
 
+    /**
+     * Parses the given raw source and stores the values in the given entity.
+     * <p>
+     * In contrast to {@link #readSource(Entity, Map)} no intermediate map is created for the whole document. Rather
+     * each field is parsed and directly handed to its property, unknown fields are skipped. Properties which are
+     * not present in the source are read as <tt>null</tt>, just like {@link #readSource(Entity, Map)} does.
+     *
+     * @param entity the entity to store the loaded data
+     * @param source the raw JSON source (as written by {@link #writeTo(Entity, XContentBuilder)}) to read the data from
+     */
+    public void readSource(Entity entity, BytesReference source) {
+        List<Property> props = getProperties();
+        boolean[] seen = new boolean[props.size()];
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+                                                                 source,
+                                                                 XContentType.JSON)) {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                throw new IOException("The source has to be an object: " + source.utf8ToString());
+            }
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+                Integer position = propertyPositions.get(parser.currentName());
+                parser.nextToken();
+                if (position == null) {
+                    parser.skipChildren();
+                } else {
+                    props.get(position).readFromSource(entity, readValue(parser));
+                    seen[position] = true;
+                }
+            }
+            if (token != XContentParser.Token.END_OBJECT) {
+                throw new IOException("Unexpected token: " + token);
+            }
+        } catch (IOException e) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Cannot parse the source of %s (%s): %s (%s)",
+                                                    entity.getId(),
+                                                    clazz.getName())
+                            .handle();
+        }
+        for (int i = 0; i < seen.length; i++) {
+            if (!seen[i]) {
+                props.get(i).readFromSource(entity, null);
+            }
+        }
+    }
+
+    /*
+     * Reads the value at the current position of the parser. Generates the same objects which would be contained
+     * in a map generated for the whole source.
+     */
+    private Object readValue(XContentParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                return parser.map();
+            case START_ARRAY:
+                return parser.list();
+            case VALUE_STRING:
+                return parser.text();
+            case VALUE_NUMBER:
+                return parser.numberValue();
+            case VALUE_BOOLEAN:
+                return parser.booleanValue();
+            case VALUE_NULL:
+                return null;
+            default:
+                return parser.objectText();
+        }
+    }
+
     /**
      * Converts the data of the given Entity object into json format
      *
@@ -231,7 +420,7 @@ public class EntityDescriptor {
                 builder.startObject();
             }
             for (Property p : getProperties()) {
-                builder.field(p.getName(), p.writeToSource(entity));
+                p.writeToSource(entity, builder);
             }
             builder.endObject();
             return builder.string();
@@ -347,13 +536,13 @@ public class EntityDescriptor {
      * @return the property with the requested name or <tt>null</tt> if no property with the given name was found
      */
     public Property getProperty(String name) {
-        for (Property p : properties) {
-            if (p.getName().equals(name)) {
-                return p;
-            }
+        List<Property> props = getProperties();
+        Integer position = propertyPositions.get(name);
+        if (position == null) {
+            return null;
         }
 
-        return null;
+        return props.get(position);
     }
 
     /**
@@ -387,4 +576,14 @@ public class EntityDescriptor {
     public boolean isUseAllField() {
         return useAllField;
     }
+
+    /**
+     * Determines if updates of entities are buffered and written in bulk.
+     *
+     * @return <tt>true</tt> if updates are written behind, <tt>false</tt> if they are written immediately
+     * @see Indexed#writeBehind()
+     */
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
 }
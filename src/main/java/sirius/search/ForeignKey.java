@@ -278,8 +278,9 @@ public class ForeignKey {
         boolean referenceChanged = false;
         for (Reference ref : references) {
             try {
-                if (entity.source == null || entity.isChanged(ref.getRemoteProperty().getName(),
-                                                              ref.getRemoteProperty().writeToSource(entity))) {
+                if (!entity.isSourceTracingEnabled()
+                    || entity.isChanged(ref.getRemoteProperty().getName(),
+                                        ref.getRemoteProperty().writeToSource(entity))) {
                     referenceChanged = true;
                     break;
                 }
@@ -297,9 +298,12 @@ public class ForeignKey {
     @SuppressWarnings("unchecked")
     private void updateReferencedFields(Entity entity) {
         try {
+            // The referencing entities are updated via a script, therefore we only need their id and routing
+            EntityDescriptor descriptor = index.getDescriptor(getLocalClass());
             index.select((Class<Entity>) getLocalClass())
                  .eq(getName(), entity.getId())
                  .autoRoute(field.getName(), entity.getId())
+                 .fields(descriptor.hasRouting() ? new String[]{descriptor.getRouting()} : new String[0])
                  .iterate(row -> {
                      updateReferencedFields(entity, row, false);
                      return true;
@@ -321,6 +325,7 @@ public class ForeignKey {
                 IndexAccess.LOG.FINE("UPDATE: %s.%s: SUCCEEDED", index.getIndex(getLocalClass()), getLocalType());
             }
             index.traceChange(child);
+            index.mirrorStoredState(child, index.getDescriptor(getLocalClass()));
         } catch (VersionConflictEngineException t) {
             // Ran out of retries -> report as warning
             IndexAccess.LOG.WARN("UPDATE: %s.%s: FAILED DUE TO CONCURRENT UPDATE: %s",
@@ -8,27 +8,33 @@
 
 package sirius.search;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
-import com.alibaba.fastjson.JSONObject;
-import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.CharStreams;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.transport.client.PreBuiltTransportClient;
 import sirius.kernel.Sirius;
 import sirius.kernel.async.Barrier;
@@ -55,6 +61,7 @@ import sirius.kernel.health.Counter;
 import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.HandledException;
 import sirius.kernel.health.Log;
+import sirius.search.properties.Property;
 import sirius.search.suggestion.Complete;
 import sirius.search.suggestion.Suggest;
 import sirius.web.resources.Resource;
@@ -63,16 +70,22 @@ import sirius.web.resources.Resources;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -100,6 +113,7 @@ public class IndexAccess {
     public static final String ASYNC_CATEGORY_INDEX_INTEGRITY = "index-ref-integrity";
     private static final String CONFIG_KEY_INDEX_TYPE = "index.type";
     private static final String ASYNC_UPDATER = "async-updater";
+    private static final int MAX_MERGE_ATTEMPTS = 3;
 
     /**
      * Contains the database schema as expected by the java model
@@ -132,6 +146,35 @@ public class IndexAccess {
      */
     protected Timer delayLineTimer;
 
+    /**
+     * Internal timer which periodically flushes the write behind buffer.
+     */
+    protected Timer writeBehindTimer;
+
+    /**
+     * Contains all buffered updates of entities which are written behind
+     */
+    protected WriteBehindBuffer writeBehindBuffer = new WriteBehindBuffer(this);
+
+    /**
+     * Determines the interval in which buffered updates are written
+     */
+    @ConfigValue("index.writeBehindInterval")
+    private Duration writeBehindInterval;
+
+    /**
+     * Contains the new indices which receive a copy of each write while an {@link IndexMigration} is running.
+     * <p>
+     * Maps the name of the index (or alias) used by the application to the new physical index. This map is
+     * immutable and replaced as a whole, so that writes don't need any locking.
+     */
+    protected volatile Map<String, String> dualWriteTargets = Collections.emptyMap();
+
+    /**
+     * Keeps track of all indices which are currently tuned for a bulk load.
+     */
+    protected BulkLoadMode bulkLoadMode = new BulkLoadMode(this);
+
     /**
      * Can be used to cache frequently used entities.
      */
@@ -164,6 +207,14 @@ public class IndexAccess {
      * Counts how many optimistic lock errors occurred
      */
     protected Counter optimisticLockErrors = new Counter();
+    /*
+     * Counts how many updates were skipped as the entity was unchanged
+     */
+    protected Counter skippedWrites = new Counter();
+    /*
+     * Counts how many optimistic lock errors were resolved by merging concurrent changes
+     */
+    protected Counter mergedConflicts = new Counter();
 
     /**
      * Can be used as routing value for one of the fetch methods to signal that no routing value is available
@@ -204,44 +255,104 @@ public class IndexAccess {
     }
 
     /**
-     * Loads a test dataset from the classpath. The given file should contains an array of JSON objects.
+     * Loads a test dataset from the classpath. The given file should contains an array of JSON objects or JSON Lines.
      * <p>
      * Each object must contain a property named <tt>_type</tt> which determines the target entity as well as
-     * <tt>_id</tt> which determiens its ID.
+     * <tt>_id</tt> which determiens its ID. The dataset is imported by a {@link DatasetImporter}. Just like
+     * {@link #create(Entity)}, existing entities are not overwritten and the save handlers and foreign keys of each
+     * entity are executed.
      *
      * @param dataset the resource to load into the in memory elasticsearch.
      */
-    @SuppressWarnings("unchecked")
     public void loadDataset(String dataset) {
-        try {
-            LOG.INFO("Loading dataset: %s", dataset);
-            Resource res = resources.resolve(dataset)
-                                    .orElseThrow(() -> new IllegalArgumentException("Unknown dataset: " + dataset));
-            String contents = CharStreams.toString(new InputStreamReader(res.getUrl().openStream(), Charsets.UTF_8));
-            JSONArray json = JSON.parseArray(contents);
-            for (JSONObject obj : (List<JSONObject>) (Object) json) {
-                loadObject(obj);
-            }
+        LOG.INFO("Loading dataset: %s", dataset);
+        Resource res = resources.resolve(dataset)
+                                .orElseThrow(() -> new IllegalArgumentException("Unknown dataset: " + dataset));
+        try (InputStream input = res.getUrl().openStream()) {
+            new DatasetImporter(this).tuneIndices().createOnly().runSaveHandlers().importData(input);
             blockThreadForUpdate();
         } catch (IOException e) {
             throw Exceptions.handle(e);
         }
     }
 
-    private void loadObject(JSONObject obj) {
+    /**
+     * Executes the given loader while the indices of the given types are tuned for mass imports.
+     * <p>
+     * While the loader runs, the refresh of the affected indices is disabled and their replicas are removed.
+     * Afterwards (also if the loader fails) the original settings are restored and the indices are refreshed.
+     * Therefore, changes performed by the loader are not visible to queries before it has completed.
+     *
+     * @param types      the entity types which are about to be imported
+     * @param forceMerge determines if the indices should be force merged once the import is completed
+     * @param loader     the import to execute
+     */
+    public void bulkLoad(Collection<Class<? extends Entity>> types, boolean forceMerge, Runnable loader) {
+        Set<String> indices = new TreeSet<>();
+        for (Class<? extends Entity> type : types) {
+            indices.add(schema.getIndex(type));
+        }
+        bulkLoadIndices(indices, forceMerge, loader);
+    }
+
+    /**
+     * Executes the given loader while the index of the given type is tuned for mass imports.
+     * <p>
+     * This is a boilerplate method for {@code bulkLoad(Collections.singletonList(type), false, loader)}.
+     *
+     * @param type   the entity type which is about to be imported
+     * @param loader the import to execute
+     */
+    public void bulkLoad(Class<? extends Entity> type, Runnable loader) {
+        bulkLoad(Collections.singletonList(type), false, loader);
+    }
+
+    /**
+     * Executes the given loader while the given indices are tuned for mass imports.
+     *
+     * @param indices    the full names of the indices to tune (including the index prefix)
+     * @param forceMerge determines if the indices should be force merged once the import is completed
+     * @param loader     the import to execute
+     * @see #bulkLoad(Collection, boolean, Runnable)
+     */
+    protected void bulkLoadIndices(Collection<String> indices, boolean forceMerge, Runnable loader) {
+        bulkLoadMode.start(indices);
         try {
-            String type = obj.getString("_type");
-            Class<? extends Entity> entityClass = getType(type);
-            if (entityClass == null) {
-                throw new IllegalArgumentException("No Entity found with type \"" + type + "\"");
-            }
-            EntityDescriptor descriptor = getDescriptor(entityClass);
-            Entity entity = entityClass.newInstance();
-            entity.setId(obj.getString("_id"));
-            descriptor.readSource(entity, obj);
-            create(entity);
+            loader.run();
+        } finally {
+            bulkLoadMode.finish(indices, forceMerge);
+            refreshAfterBulkLoad(indices);
+        }
+    }
+
+    private void refreshAfterBulkLoad(Collection<String> indices) {
+        // A failed refresh must not hide an exception thrown by the loader...
+        try {
+            getClient().admin().indices().prepareRefresh(indices.toArray(new String[indices.size()])).get();
         } catch (Exception e) {
-            throw new IllegalArgumentException("Cannot load: " + obj, e);
+            Exceptions.handle()
+                      .to(LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to refresh %s after a bulk load: %s (%s)", indices)
+                      .handle();
+        }
+    }
+
+    /**
+     * Starts or finishes the bulk load mode for the given indices without executing a loader.
+     * <p>
+     * This is used to tune the indices for an import which is not performed by this node (e.g. by the
+     * <tt>es bulkload</tt> console command). Note that each start must be followed by exactly one finish.
+     *
+     * @param indices    the full names of the indices (including the index prefix)
+     * @param active     <tt>true</tt> to start the bulk load mode, <tt>false</tt> to finish it
+     * @param forceMerge determines if the indices should be force merged when finishing the bulk load mode
+     */
+    public void setBulkLoadMode(Collection<String> indices, boolean active, boolean forceMerge) {
+        if (active) {
+            bulkLoadMode.start(indices);
+        } else {
+            bulkLoadMode.finish(indices, forceMerge);
         }
     }
 
@@ -439,6 +550,22 @@ public class IndexAccess {
 
         delayLineTimer = new Timer("index-delay");
         delayLineTimer.schedule(new DelayLineHandler(), 1000, 1000);
+
+        writeBehindTimer = new Timer("index-write-behind");
+        writeBehindTimer.schedule(new WriteBehindBuffer.Flusher(writeBehindBuffer),
+                                  writeBehindInterval.toMillis(),
+                                  writeBehindInterval.toMillis());
+    }
+
+    /**
+     * Writes all buffered updates of entities which are written behind.
+     * <p>
+     * See {@link sirius.search.annotations.Indexed#writeBehind()} for details.
+     * <p>
+     * This is automatically invoked periodically and during the shutdown of the system.
+     */
+    public void flushWriteBehind() {
+        writeBehindBuffer.flush();
     }
 
     /**
@@ -842,6 +969,10 @@ public class IndexAccess {
      * <p>
      * If the same entity was modified in the database already, an
      * <tt>OptimisticLockException</tt> will be thrown
+     * <p>
+     * If the entity was loaded from the database and none of its properties was changed, no write is performed at
+     * all. Therefore no <tt>OptimisticLockException</tt> is thrown for such an entity, even if it is outdated. Use
+     * {@link Entity#forceUpdate()} to enforce a write (and therefore the version check).
      *
      * @param entity the entity to save
      * @param <E>    the type of the entity to update
@@ -859,6 +990,10 @@ public class IndexAccess {
      * <p>
      * If the same entity was modified in the database already, an
      * <tt>OptimisticLockException</tt> will be thrown
+     * <p>
+     * If the entity was loaded from the database and none of its properties was changed, no write is performed at
+     * all. Therefore no <tt>OptimisticLockException</tt> is thrown for such an entity, even if it is outdated. Use
+     * {@link Entity#forceUpdate()} to enforce a write (and therefore the version check).
      *
      * @param entity the entity to save
      * @param <E>    the type of the entity to update
@@ -876,6 +1011,14 @@ public class IndexAccess {
      * <p>
      * If the entity was modified in the database and those changes where not reflected
      * by the entity to be saved, this operation will fail.
+     * <p>
+     * If the entity was loaded from the database and none of its properties was changed, neither the save handlers
+     * are invoked nor is a write performed at all. As no write takes place, an outdated but unchanged entity doesn't
+     * cause an error either. Use {@link Entity#forceUpdate()} to enforce a write (and therefore the version check).
+     * <p>
+     * Existing entities which are marked as {@link sirius.search.annotations.Indexed#writeBehind()} are only
+     * buffered and written later. In this case, a concurrent modification is only detected and reported once the
+     * buffer is flushed.
      *
      * @param entity the entity to be written into the DB
      * @param <E>    the type of the entity to update
@@ -883,6 +1026,9 @@ public class IndexAccess {
      */
     public <E extends Entity> E update(E entity) {
         try {
+            if (!entity.isNew() && getDescriptor(entity.getClass()).isWriteBehind()) {
+                return writeBehind(entity);
+            }
             return update(entity, true, false, true);
         } catch (OptimisticLockException e) {
             reportClash(entity);
@@ -992,6 +1138,36 @@ public class IndexAccess {
         traces.put(trace.type + "-" + trace.id, trace);
     }
 
+    /**
+     * Creates an atomic update for the given entity.
+     * <p>
+     * The modifications collected by the returned update are applied by ElasticSearch itself, so that no optimistic
+     * lock or retry loop is required on the client side.
+     *
+     * @param entity the entity to update
+     * @param <E>    the type of the entity to update
+     * @return a new atomic update which has to be executed via {@link AtomicUpdate#execute()}
+     */
+    public <E extends Entity> AtomicUpdate<E> atomicUpdate(E entity) {
+        return new AtomicUpdate<>(this, entity);
+    }
+
+    /**
+     * Atomically increments the given numeric field of the given entity.
+     * <p>
+     * This is a boilerplate method for {@code atomicUpdate(entity).increment(field, delta).execute()}. The
+     * incremented value is also applied to the given entity.
+     *
+     * @param entity the entity to update
+     * @param field  the name of the field to increment
+     * @param delta  the amount to add
+     * @param <E>    the type of the entity to update
+     * @return the new version of the entity
+     */
+    public <E extends Entity> long increment(E entity, String field, long delta) {
+        return atomicUpdate(entity).increment(field, delta).execute();
+    }
+
     /**
      * Updates the entity in the database.
      * <p>
@@ -1030,6 +1206,51 @@ public class IndexAccess {
         }
     }
 
+    /*
+     * Runs the save checks and handlers and buffers the rendered source of the given entity, so that it is written
+     * in bulk (guarded by the current version of the entity) once the WriteBehindBuffer is flushed. The save handlers
+     * are executed right away (rather than by the flushing thread, which must not access the entity), therefore
+     * foreign keys propagate a change before the entity itself is persisted.
+     */
+    private <E extends Entity> E writeBehind(E entity) {
+        verifyWritable(entity);
+        try {
+            if (isUnchanged(entity, true, false)) {
+                skippedWrites.inc();
+                return entity;
+            }
+
+            entity.beforeSave();
+            EntityDescriptor descriptor = getDescriptor(entity.getClass());
+            BytesReference source = descriptor.writeSource(entity);
+            if (LOG.isFINE()) {
+                LOG.FINE("SAVE[WRITE-BEHIND]: %s.%s: %s",
+                         schema.getIndex(entity),
+                         descriptor.getType(),
+                         source.utf8ToString());
+            }
+
+            IndexRequestBuilder irb =
+                    getClient().prepareIndex(schema.getIndex(entity), descriptor.getType(), entity.getId())
+                               .setSource(source, XContentType.JSON);
+            applyRouting("Updating", entity, descriptor, irb::setRouting);
+            writeBehindBuffer.add(entity, descriptor, irb, source);
+
+            entity.afterSave();
+            entity.updateSourceSnapshot();
+            entity.forceUpdate = false;
+            return entity;
+        } catch (Exception e) {
+            throw Exceptions.handle()
+                            .to(LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to update '%s' (%s): %s (%s)",
+                                                    entity.toDebugString(),
+                                                    entity.getId())
+                            .handle();
+        }
+    }
+
     /**
      * Internal save method used by {@link #create(Entity)}, {@link #tryUpdate(Entity)}, {@link #update(Entity)}
      * and {@link #override(Entity)}
@@ -1046,13 +1267,24 @@ public class IndexAccess {
                                           final boolean performVersionCheck,
                                           final boolean forceCreate,
                                           final boolean runSaveChecks) throws OptimisticLockException {
+        verifyWritable(entity);
         try {
-            final Map<String, Object> source = Maps.newTreeMap();
+            if (isUnchanged(entity, performVersionCheck, forceCreate)) {
+                if (LOG.isFINE()) {
+                    LOG.FINE("SAVE: %s.%s: %s UNCHANGED - SKIPPED",
+                             schema.getIndex(entity),
+                             getDescriptor(entity.getClass()).getType(),
+                             entity.getId());
+                }
+                skippedWrites.inc();
+                return entity;
+            }
+
             if (runSaveChecks) {
                 entity.beforeSave();
             }
             EntityDescriptor descriptor = getDescriptor(entity.getClass());
-            descriptor.writeTo(entity, source);
+            BytesReference source = descriptor.writeSource(entity);
 
             if (LOG.isFINE()) {
                 LOG.FINE("SAVE[CREATE: %b, LOCK: %b]: %s.%s: %s",
@@ -1060,7 +1292,7 @@ public class IndexAccess {
                          performVersionCheck,
                          schema.getIndex(entity),
                          descriptor.getType(),
-                         Strings.join(source));
+                         source.utf8ToString());
             }
 
             String id = entity.getId();
@@ -1073,14 +1305,18 @@ public class IndexAccess {
 
             IndexRequestBuilder irb = getClient().prepareIndex(schema.getIndex(entity), descriptor.getType(), id)
                                                  .setCreate(forceCreate)
-                                                 .setSource(source);
+                                                 .setSource(source, XContentType.JSON);
             if (!entity.isNew() && performVersionCheck) {
                 irb.setVersion(entity.getVersion());
             }
 
             applyRouting("Updating", entity, descriptor, irb::setRouting);
 
-            return executeUpdate(entity, descriptor, irb, runSaveChecks);
+            executeUpdate(entity, descriptor, irb, runSaveChecks);
+            entity.updateSourceSnapshot();
+            entity.forceUpdate = false;
+            mirrorWrite(entity, descriptor, source);
+            return entity;
         } catch (VersionConflictEngineException e) {
             if (LOG.isFINE()) {
                 LOG.FINE("Version conflict on updating: %s", entity);
@@ -1098,6 +1334,264 @@ public class IndexAccess {
         }
     }
 
+    /**
+     * Updates only the properties of the entity which changed since it was loaded.
+     * <p>
+     * Instead of re-indexing the whole document, only the changed fields are sent to ElasticSearch as partial
+     * document. The update is still guarded by the version of the entity. If the entity is new, was not loaded
+     * with source tracing enabled or if {@link Entity#forceUpdate()} was called, a regular {@link #update(Entity)} is
+     * performed. Changed object or map values are replaced as a whole, as a partial document would be merged into
+     * the stored values.
+     *
+     * @param entity the entity to be written into the DB
+     * @param <E>    the type of the entity to update
+     * @return the updated entity
+     */
+    public <E extends Entity> E updateChanged(E entity) {
+        try {
+            return updateChanged(entity, true);
+        } catch (OptimisticLockException e) {
+            reportClash(entity);
+            throw Exceptions.handle()
+                            .to(LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to update '%s' (%s): %s (%s)",
+                                                    entity.toDebugString(),
+                                                    entity.getId())
+                            .handle();
+        }
+    }
+
+    /**
+     * Tries to update only the properties of the entity which changed since it was loaded.
+     * <p>
+     * If the same entity was modified in the database already, an <tt>OptimisticLockException</tt> will be thrown.
+     *
+     * @param entity the entity to save
+     * @param <E>    the type of the entity to update
+     * @return the saved entity
+     * @throws OptimisticLockException if the entity was modified in the database and those changes where
+     *                                 not reflected by the entity to be saved
+     * @see #updateChanged(Entity)
+     */
+    public <E extends Entity> E tryUpdateChanged(E entity) throws OptimisticLockException {
+        return updateChanged(entity, true);
+    }
+
+    /**
+     * Updates the entity in the database while merging concurrent modifications of other fields.
+     * <p>
+     * If the entity was modified in the database in the meantime, the current state is loaded and compared against
+     * the state the entity was loaded from. If the concurrent modification only affected properties which haven't
+     * been changed by the given entity, these changes are applied to the entity and the update is performed again.
+     * Only if both sides changed the same property to different values, the update fails.
+     *
+     * @param entity the entity to be written into the DB
+     * @param <E>    the type of the entity to update
+     * @return the updated entity
+     */
+    public <E extends Entity> E updateMerging(E entity) {
+        try {
+            return tryUpdateMerging(entity);
+        } catch (OptimisticLockException e) {
+            reportClash(entity);
+            throw Exceptions.handle()
+                            .to(LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to update '%s' (%s): %s (%s)",
+                                                    entity.toDebugString(),
+                                                    entity.getId())
+                            .handle();
+        }
+    }
+
+    /**
+     * Tries to update the entity in the database while merging concurrent modifications of other fields.
+     *
+     * @param entity the entity to save
+     * @param <E>    the type of the entity to update
+     * @return the saved entity
+     * @throws OptimisticLockException if the entity was concurrently modified and the changes overlap with the
+     *                                 changes of the given entity
+     * @see #updateMerging(Entity)
+     */
+    public <E extends Entity> E tryUpdateMerging(E entity) throws OptimisticLockException {
+        int attempts = MAX_MERGE_ATTEMPTS;
+        while (true) {
+            try {
+                return update(entity, true, false, true);
+            } catch (OptimisticLockException e) {
+                attempts--;
+                if (attempts <= 0 || !entity.isSourceTracingEnabled()) {
+                    throw e;
+                }
+                mergeConcurrentChanges(entity, e);
+            }
+        }
+    }
+
+    /*
+     * Performs a three-way merge between the traced source of the entity (base), the entity itself (ours) and the
+     * current state in the database (theirs). Changes of "theirs" are applied to the given entity, which also updates
+     * its traced source and version, so that the next update is based on the current state.
+     */
+    private <E extends Entity> void mergeConcurrentChanges(E entity, OptimisticLockException conflict)
+            throws OptimisticLockException {
+        E current = refreshOrNull(entity);
+        if (current == null) {
+            throw conflict;
+        }
+
+        Map<String, Object> ours = entity.getChangedSource();
+        Map<String, Object> theirs = Maps.newTreeMap();
+        EntityDescriptor descriptor = getDescriptor(entity.getClass());
+        for (Property p : descriptor.getProperties()) {
+            Object theirValue = p.writeToSource(current);
+            if (entity.isChanged(p.getName(), theirValue)) {
+                if (ours.containsKey(p.getName()) && !Objects.equals(ours.get(p.getName()), theirValue)) {
+                    if (LOG.isFINE()) {
+                        LOG.FINE("Cannot merge concurrent changes of %s in %s", p.getName(), entity);
+                    }
+                    throw conflict;
+                }
+                theirs.put(p.getName(), theirValue);
+            }
+        }
+
+        for (Map.Entry<String, Object> change : theirs.entrySet()) {
+            descriptor.getProperty(change.getKey()).readFromSource(entity, change.getValue());
+        }
+        entity.version = current.version;
+        mergedConflicts.inc();
+        if (LOG.isFINE()) {
+            LOG.FINE("Merged concurrent changes of %s into %s", Strings.join(theirs), entity);
+        }
+    }
+
+    /*
+     * An update can be skipped if the entity was loaded from the database, none of its properties changed and
+     * the write would be guarded by a version check anyway (which either has no effect or fails). As the entity
+     * is unchanged, its save checks and handlers are skipped as well.
+     */
+    <E extends Entity> boolean isUnchanged(E entity, boolean performVersionCheck, boolean forceCreate) {
+        if (forceCreate || !performVersionCheck || entity.isNew() || entity.forceUpdate) {
+            return false;
+        }
+
+        return !entity.isAnyPropertyChanged();
+    }
+
+    /**
+     * Internal save method used by {@link #updateChanged(Entity)} and {@link #tryUpdateChanged(Entity)}.
+     *
+     * @param entity        the entity to save
+     * @param runSaveChecks determines if the entities save checks and handlers should be executed
+     * @param <E>           the type of the entity to update
+     * @return the saved entity
+     * @throws OptimisticLockException if an intermediary change took place
+     */
+    protected <E extends Entity> E updateChanged(final E entity, final boolean runSaveChecks)
+            throws OptimisticLockException {
+        verifyWritable(entity);
+        if (entity.isNew() || !entity.isSourceTracingEnabled()) {
+            return update(entity, true, false, runSaveChecks);
+        }
+        try {
+            if (isUnchanged(entity, true, false)) {
+                skippedWrites.inc();
+                return entity;
+            }
+            if (entity.forceUpdate) {
+                return update(entity, true, false, runSaveChecks);
+            }
+            Map<String, Object> changes = entity.getChangedSource();
+            if (changes.isEmpty()) {
+                return entity;
+            }
+            if (runSaveChecks) {
+                entity.beforeSave();
+                // The save handlers might have changed further properties...
+                changes = entity.getChangedSource();
+            }
+            EntityDescriptor descriptor = getDescriptor(entity.getClass());
+
+            if (LOG.isFINE()) {
+                LOG.FINE("SAVE-CHANGED: %s.%s: %s: %s",
+                         schema.getIndex(entity),
+                         descriptor.getType(),
+                         entity.getId(),
+                         Strings.join(changes));
+            }
+
+            UpdateRequestBuilder urb =
+                    getClient().prepareUpdate(schema.getIndex(entity), descriptor.getType(), entity.getId())
+                               .setVersion(entity.getVersion());
+            if (containsStructuredValues(changes)) {
+                urb.setScript(createReplaceFieldsScript(changes));
+            } else {
+                urb.setDoc(changes);
+            }
+            applyRouting("Updating", entity, descriptor, urb::setRouting);
+
+            Watch w = Watch.start();
+            UpdateResponse response = urb.execute().actionGet();
+            entity.version = response.getVersion();
+            if (runSaveChecks) {
+                entity.afterSave();
+            }
+            entity.updateSourceSnapshot(changes);
+            queryDuration.addValue(w.elapsedMillis());
+            w.submitMicroTiming("ES", "UPDATE-CHANGED " + entity.getClass().getName());
+            traceChange(entity);
+            mirrorWrite(entity, descriptor, null);
+            return entity;
+        } catch (VersionConflictEngineException e) {
+            if (LOG.isFINE()) {
+                LOG.FINE("Version conflict on updating: %s", entity);
+            }
+            optimisticLockErrors.inc();
+            throw new OptimisticLockException(e, entity);
+        } catch (Exception e) {
+            throw Exceptions.handle()
+                            .to(LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to update '%s' (%s): %s (%s)",
+                                                    entity.toDebugString(),
+                                                    entity.getId())
+                            .handle();
+        }
+    }
+
+    /*
+     * A partial document is deep merged into the stored document by ElasticSearch. Therefore keys which have been
+     * removed from an object or map value would remain in the stored document.
+     */
+    private boolean containsStructuredValues(Map<String, Object> changes) {
+        for (Object value : changes.values()) {
+            if (value instanceof Map) {
+                return true;
+            }
+            if (value instanceof Collection && ((Collection<?>) value).stream().anyMatch(v -> v instanceof Map)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Creates a script which replaces each changed field as a whole instead of merging it into the stored value.
+     */
+    private Script createReplaceFieldsScript(Map<String, Object> changes) {
+        StringBuilder script = new StringBuilder();
+        Map<String, Object> params = Maps.newHashMap();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            String param = "p" + params.size();
+            params.put(param, change.getValue());
+            script.append("ctx._source['").append(change.getKey()).append("'] = params.").append(param).append(";");
+        }
+        return new Script(ScriptType.INLINE, "painless", script.toString(), params);
+    }
+
     /**
      * Internal save method used by {@link #updateBulk(List)}.
      *
@@ -1110,54 +1604,96 @@ public class IndexAccess {
     protected <E extends Entity> List<E> updateBulk(final List<E> entities,
                                                     final boolean performVersionCheck,
                                                     final boolean forceCreate) {
+        entities.forEach(this::verifyWritable);
         try {
-            BulkRequestBuilder bulkRequest = getClient().prepareBulk();
-            EntityDescriptor descriptor;
+            return executeBulkUpdate(entities, createBulkRequest(entities, performVersionCheck, forceCreate), null);
+        } catch (Exception e) {
+            throw Exceptions.handle().to(LOG).error(e).withSystemErrorMessage("Failed bulk-update").handle();
+        }
+    }
 
-            for (E entity : entities) {
-                final Map<String, Object> source = Maps.newTreeMap();
-                entity.beforeSave();
-                descriptor = getDescriptor(entity.getClass());
-                descriptor.writeTo(entity, source);
+    /**
+     * Updates the given entities using a single (version checked) bulk request.
+     * <p>
+     * In contrast to {@link #updateBulk(List)}, concurrent modifications are not reported as errors. Rather all
+     * entities which couldn't be written due to a version conflict are returned, so that these can be reloaded and
+     * modified again by the caller (see {@link Query#updateEach(Callback)}). Entities which couldn't be written for
+     * any other reason are logged and added to the given list of failures.
+     *
+     * @param entities the entities to save
+     * @param failures the list to which all entities are added which failed for other reasons than a conflict
+     * @param <E>      the type of the entities to update
+     * @return the entities which were concurrently modified and therefore not written
+     */
+    protected <E extends Entity> List<E> tryUpdateBulk(List<E> entities, List<E> failures) {
+        entities.forEach(this::verifyWritable);
+        try {
+            return executeBulkUpdate(entities, createBulkRequest(entities, true, false), failures);
+        } catch (Exception e) {
+            throw Exceptions.handle().to(LOG).error(e).withSystemErrorMessage("Failed bulk-update").handle();
+        }
+    }
 
-                if (LOG.isFINE()) {
-                    LOG.FINE("BULK-SAVE[CREATE: %b, LOCK: %b]: %s.%s: %s",
-                             forceCreate,
-                             performVersionCheck,
-                             schema.getIndex(entity),
-                             descriptor.getType(),
-                             Strings.join(source));
-                }
+    private <E extends Entity> BulkRequestBuilder createBulkRequest(List<E> entities,
+                                                                    boolean performVersionCheck,
+                                                                    boolean forceCreate) {
+        BulkRequestBuilder bulkRequest = getClient().prepareBulk();
+        EntityDescriptor descriptor;
 
-                String id = entity.getId();
-                if (NEW.equals(id)) {
-                    id = null;
-                }
-                if (Strings.isEmpty(id)) {
-                    id = entity.computePossibleId();
-                }
+        for (E entity : entities) {
+            entity.beforeSave();
+            descriptor = getDescriptor(entity.getClass());
+            BytesReference source = descriptor.writeSource(entity);
 
-                IndexRequestBuilder irb = getClient().prepareIndex(schema.getIndex(entity), descriptor.getType(), id)
-                                                     .setCreate(forceCreate)
-                                                     .setSource(source);
-                if (!entity.isNew() && performVersionCheck) {
-                    irb.setVersion(entity.getVersion());
-                }
+            if (LOG.isFINE()) {
+                LOG.FINE("BULK-SAVE[CREATE: %b, LOCK: %b]: %s.%s: %s",
+                         forceCreate,
+                         performVersionCheck,
+                         schema.getIndex(entity),
+                         descriptor.getType(),
+                         source.utf8ToString());
+            }
 
-                applyRouting("Updating", entity, descriptor, irb::setRouting);
-                bulkRequest.add(irb);
+            String id = entity.getId();
+            if (NEW.equals(id)) {
+                id = null;
+            }
+            if (Strings.isEmpty(id)) {
+                id = entity.computePossibleId();
             }
 
-            return executeBulkUpdate(entities, bulkRequest);
-        } catch (Exception e) {
-            throw Exceptions.handle().to(LOG).error(e).withSystemErrorMessage("Failed bulk-update").handle();
+            IndexRequestBuilder irb = getClient().prepareIndex(schema.getIndex(entity), descriptor.getType(), id)
+                                                 .setCreate(forceCreate)
+                                                 .setSource(source, XContentType.JSON);
+            if (!entity.isNew() && performVersionCheck) {
+                irb.setVersion(entity.getVersion());
+            }
+
+            applyRouting("Updating", entity, descriptor, irb::setRouting);
+            bulkRequest.add(irb);
+        }
+
+        return bulkRequest;
+    }
+
+    /*
+     * Rejects entities which were loaded by a read only query, as these don't track their changes
+     */
+    private void verifyWritable(Entity entity) {
+        if (entity.isReadOnly()) {
+            throw Exceptions.handle()
+                            .to(LOG)
+                            .withSystemErrorMessage("Cannot save '%s' (%s) as it was loaded as read only entity.",
+                                                    entity.getId(),
+                                                    entity.getClass().getName())
+                            .handle();
         }
     }
 
-    private <E extends Entity> void applyRouting(String action,
-                                                 E entity,
-                                                 EntityDescriptor descriptor,
-                                                 Consumer<String> routingTarget) {
+    protected <E extends Entity> void applyRouting(String action,
+                                                   E entity,
+                                                   EntityDescriptor descriptor,
+                                                   Consumer<String> routingTarget) {
         if (descriptor.hasRouting()) {
             Object routingKey = descriptor.getProperty(descriptor.getRouting()).writeToSource(entity);
             if (Strings.isEmpty(routingKey)) {
@@ -1172,6 +1708,130 @@ public class IndexAccess {
         }
     }
 
+    /*
+     * Determines the index which receives a copy of all writes of the given entity, as a migration is running.
+     */
+    @Nullable
+    private String getDualWriteTarget(Entity entity) {
+        Map<String, String> targets = dualWriteTargets;
+        if (targets.isEmpty()) {
+            return null;
+        }
+        return targets.get(schema.getIndex(entity));
+    }
+
+    /**
+     * Copies the given (successful) write into the new index of a running {@link IndexMigration}.
+     * <p>
+     * The copy uses the version of the entity as external version, so that an older copy can never replace a
+     * newer one. Therefore a version conflict simply means that the new index is already up to date.
+     *
+     * @param entity     the entity which has been written
+     * @param descriptor the descriptor of the entity
+     * @param source     the source which has been written or <tt>null</tt> to render it from the entity
+     * @param <E>        the type of the entity
+     */
+    protected <E extends Entity> void mirrorWrite(E entity,
+                                                  EntityDescriptor descriptor,
+                                                  @Nullable BytesReference source) {
+        String target = getDualWriteTarget(entity);
+        if (target == null) {
+            return;
+        }
+        try {
+            BytesReference effectiveSource = source != null ? source : descriptor.writeSource(entity);
+            IndexRequestBuilder irb = getClient().prepareIndex(target, descriptor.getType(), entity.getId())
+                                                 .setSource(effectiveSource, XContentType.JSON)
+                                                 .setVersion(entity.getVersion())
+                                                 .setVersionType(VersionType.EXTERNAL);
+            applyRouting("Mirroring", entity, descriptor, irb::setRouting);
+            irb.execute().actionGet();
+        } catch (VersionConflictEngineException e) {
+            Exceptions.ignore(e);
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to mirror '%s' (%s) into %s: %s (%s)",
+                                              entity.getId(),
+                                              entity.getClass().getName(),
+                                              target)
+                      .handle();
+        }
+    }
+
+    /**
+     * Copies the current state of the given entity, as stored in its index, into the new index of a running
+     * {@link IndexMigration}.
+     * <p>
+     * This is used for writes which are applied by ElasticSearch itself (e.g. an {@link AtomicUpdate}), so that
+     * the resulting document isn't known locally.
+     *
+     * @param entity     the entity which has been updated
+     * @param descriptor the descriptor of the entity
+     * @param <E>        the type of the entity
+     */
+    protected <E extends Entity> void mirrorStoredState(E entity, EntityDescriptor descriptor) {
+        String target = getDualWriteTarget(entity);
+        if (target == null) {
+            return;
+        }
+        try {
+            GetRequestBuilder grb =
+                    getClient().prepareGet(schema.getIndex(entity), descriptor.getType(), entity.getId());
+            applyRouting("Mirroring", entity, descriptor, grb::setRouting);
+            GetResponse res = grb.execute().actionGet();
+            if (!res.isExists()) {
+                return;
+            }
+            IndexRequestBuilder irb = getClient().prepareIndex(target, descriptor.getType(), entity.getId())
+                                                 .setSource(res.getSourceAsBytesRef(), XContentType.JSON)
+                                                 .setVersion(res.getVersion())
+                                                 .setVersionType(VersionType.EXTERNAL);
+            applyRouting("Mirroring", entity, descriptor, irb::setRouting);
+            irb.execute().actionGet();
+        } catch (VersionConflictEngineException e) {
+            Exceptions.ignore(e);
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to mirror '%s' (%s) into %s: %s (%s)",
+                                              entity.getId(),
+                                              entity.getClass().getName(),
+                                              target)
+                      .handle();
+        }
+    }
+
+    /*
+     * Copies a delete into the new index of a running migration.
+     */
+    private <E extends Entity> void mirrorDelete(E entity, EntityDescriptor descriptor, long version) {
+        String target = getDualWriteTarget(entity);
+        if (target == null) {
+            return;
+        }
+        try {
+            DeleteRequestBuilder drb = getClient().prepareDelete(target, descriptor.getType(), entity.getId())
+                                                  .setVersion(version)
+                                                  .setVersionType(VersionType.EXTERNAL);
+            applyRouting("Mirroring", entity, descriptor, drb::setRouting);
+            drb.execute().actionGet();
+        } catch (VersionConflictEngineException e) {
+            Exceptions.ignore(e);
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to mirror the deletion of '%s' (%s) into %s: %s (%s)",
+                                              entity.getId(),
+                                              entity.getClass().getName(),
+                                              target)
+                      .handle();
+        }
+    }
+
     private <E extends Entity> E executeUpdate(E entity,
                                                EntityDescriptor descriptor,
                                                IndexRequestBuilder irb,
@@ -1196,23 +1856,51 @@ public class IndexAccess {
         return entity;
     }
 
-    private <E extends Entity> List<E> executeBulkUpdate(List<E> entities, BulkRequestBuilder brb) {
+    /*
+     * If a list of failures is given, conflicts and failed items aren't reported as a whole. Rather the conflicts are
+     * returned and the failures are logged and collected.
+     */
+    private <E extends Entity> List<E> executeBulkUpdate(List<E> entities,
+                                                         BulkRequestBuilder brb,
+                                                         @Nullable List<E> failures) {
+        boolean collectConflicts = failures != null;
         Watch w = Watch.start();
         BulkResponse indexResponse = brb.execute().actionGet();
 
         if (!indexResponse.hasFailures() && LOG.isFINE()) {
             LOG.FINE("BULK-SAVE SUCCEEDED");
-        } else if (indexResponse.hasFailures()) {
+        } else if (indexResponse.hasFailures() && !collectConflicts) {
             Exceptions.handle().withSystemErrorMessage(indexResponse.buildFailureMessage()).handle();
         }
 
+        List<E> conflicts = Lists.newArrayList();
         for (int i = 0; i < indexResponse.getItems().length; i++) {
             E entity = entities.get(i);
-            entity.id = indexResponse.getItems()[i].getId();
-            entity.version = indexResponse.getItems()[i].getVersion();
+            BulkItemResponse item = indexResponse.getItems()[i];
+            if (collectConflicts && isVersionConflict(item)) {
+                optimisticLockErrors.inc();
+                conflicts.add(entity);
+                continue;
+            }
+
+            entity.id = item.getId();
+            entity.version = item.getVersion();
 
-            if (!indexResponse.getItems()[i].isFailed()) {
+            if (!item.isFailed()) {
+                // The foreign keys determine which fields changed, therefore the snapshot is updated afterwards...
                 entity.afterSave();
+                entity.updateSourceSnapshot();
+                entity.forceUpdate = false;
+                mirrorWrite(entity, getDescriptor(entity.getClass()), null);
+            } else if (collectConflicts) {
+                failures.add(entity);
+                Exceptions.handle()
+                          .to(LOG)
+                          .withSystemErrorMessage("Failed to update %s (%s): %s",
+                                                  entity.getClass().getSimpleName(),
+                                                  entity.getId(),
+                                                  item.getFailureMessage())
+                          .handle();
             }
 
             traceChange(entity);
@@ -1221,7 +1909,17 @@ public class IndexAccess {
         queryDuration.addValue(w.elapsedMillis());
         w.submitMicroTiming("ES", "BULK-UPDATE");
 
-        return entities;
+        return collectConflicts ? conflicts : entities;
+    }
+
+    /**
+     * Determines if the given bulk item failed due to a concurrent modification.
+     *
+     * @param item the response of a single bulk item
+     * @return <tt>true</tt> if a version conflict occurred, <tt>false</tt> otherwise
+     */
+    boolean isVersionConflict(BulkItemResponse item) {
+        return item.isFailed() && item.getFailure().getStatus() == RestStatus.CONFLICT;
     }
 
     /**
@@ -1278,12 +1976,49 @@ public class IndexAccess {
                                      @Nullable String routing,
                                      @Nonnull final Class<E> clazz,
                                      String id) {
+        return find(index, routing, clazz, id, false);
+    }
+
+    /**
+     * Tries to find the entity of the given type with the given id for reading only.
+     * <p>
+     * In contrast to {@link #find(Class, String)} the original state of the entity isn't tracked, which saves the
+     * memory and time required to copy its values. The returned entity is marked as read only and cannot be saved.
+     *
+     * @param clazz the type of the entity
+     * @param id    the id of the entity
+     * @param <E>   the type of the entity to find
+     * @return the entity of the given class with the given id or <tt>null</tt> if no such entity exists
+     */
+    public <E extends Entity> E findReadOnly(final Class<E> clazz, String id) {
+        return find(null, null, clazz, id, true);
+    }
+
+    /**
+     * Tries to find the entity of the given type with the given id and routing for reading only.
+     *
+     * @param routing the value used to compute the routing hash
+     * @param clazz   the type of the entity
+     * @param id      the id of the entity
+     * @param <E>     the type of the entity to find
+     * @return the entity of the given class with the given id or <tt>null</tt> if no such entity exists
+     * @see #findReadOnly(Class, String)
+     */
+    public <E extends Entity> E findReadOnly(String routing, final Class<E> clazz, String id) {
+        return find(null, routing, clazz, id, true);
+    }
+
+    private <E extends Entity> E find(@Nullable String index,
+                                      @Nullable String routing,
+                                      @Nonnull final Class<E> clazz,
+                                      String id,
+                                      boolean readOnly) {
         try {
             if (Strings.isEmpty(id)) {
                 return null;
             }
             if (NEW.equals(id)) {
-                E e = clazz.newInstance();
+                E e = clazz.cast(getDescriptor(clazz).newInstance());
                 e.setId(NEW);
                 return e;
             }
@@ -1301,7 +2036,7 @@ public class IndexAccess {
             Watch w = Watch.start();
             try {
                 verifyRoutingForFind(routing, clazz, id, descriptor);
-                return executeFind(indexName, routing, clazz, id, descriptor);
+                return executeFind(indexName, routing, clazz, id, descriptor, readOnly);
             } finally {
                 queryDuration.addValue(w.elapsedMillis());
                 w.submitMicroTiming("ES", "UPDATE " + clazz.getName());
@@ -1319,7 +2054,8 @@ public class IndexAccess {
                                              @Nullable String routing,
                                              @Nonnull Class<E> clazz,
                                              String id,
-                                             EntityDescriptor descriptor) throws Exception {
+                                             EntityDescriptor descriptor,
+                                             boolean readOnly) throws Exception {
         GetResponse res = getClient().prepareGet(index, descriptor.getType(), id)
                                      .setPreference("_primary")
                                      .setRouting(routing)
@@ -1331,13 +2067,17 @@ public class IndexAccess {
             }
             return null;
         } else {
-            E entity = clazz.newInstance();
-            entity.initSourceTracing();
+            E entity = clazz.cast(descriptor.newInstance());
             entity.setId(res.getId());
             entity.setVersion(res.getVersion());
-            descriptor.readSource(entity, res.getSource());
+            descriptor.readSource(entity, res.getSourceAsBytesRef());
+            if (readOnly) {
+                entity.markReadOnly();
+            } else {
+                entity.initLazySourceTracing(res.getSourceAsBytesRef());
+            }
             if (LOG.isFINE()) {
-                LOG.FINE("FIND: %s.%s: FOUND: %s", index, descriptor.getType(), Strings.join(res.getSource()));
+                LOG.FINE("FIND: %s.%s: FOUND: %s", index, descriptor.getType(), res.getSourceAsString());
             }
             return entity;
         }
@@ -1507,6 +2247,9 @@ public class IndexAccess {
                 return;
             }
             EntityDescriptor descriptor = getDescriptor(entity.getClass());
+            if (descriptor.isWriteBehind()) {
+                writeBehindBuffer.discard(entity);
+            }
             if (LOG.isFINE()) {
                 LOG.FINE("DELETE[FORCE: %b]: %s.%s: %s",
                          force,
@@ -1524,7 +2267,7 @@ public class IndexAccess {
 
             applyRouting("Deleting", entity, descriptor, drb::setRouting);
 
-            drb.execute().actionGet();
+            DeleteResponse deleteResponse = drb.execute().actionGet();
             entity.deleted = true;
             queryDuration.addValue(w.elapsedMillis());
             w.submitMicroTiming("ES", "DELETE " + entity.getClass().getName());
@@ -1536,6 +2279,7 @@ public class IndexAccess {
                          entity.getId());
             }
             traceChange(entity);
+            mirrorDelete(entity, descriptor, deleteResponse.getVersion());
         } catch (VersionConflictEngineException e) {
             if (LOG.isFINE()) {
                 LOG.FINE("Version conflict on updating: %s", entity);
@@ -1554,6 +2298,26 @@ public class IndexAccess {
         }
     }
 
+    /**
+     * Creates a new query which searches the entities of all given classes using a single request.
+     *
+     * @param types the entity classes to search in
+     * @return a new query against the indices of all given classes
+     */
+    @SafeVarargs
+    public final MultiTypeQuery selectAll(Class<? extends Entity>... types) {
+        return new MultiTypeQuery(this, Arrays.asList(types));
+    }
+
+    /**
+     * Creates a new batch which executes several independent queries using a single multi-search request.
+     *
+     * @return a new batch of queries which has to be executed via {@link QueryBatch#execute()}
+     */
+    public QueryBatch batch() {
+        return new QueryBatch(this);
+    }
+
     /**
      * Creates a new query for objects of the given class.
      *
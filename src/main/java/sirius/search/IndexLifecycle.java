@@ -55,6 +55,13 @@ public class IndexLifecycle implements Startable, Stoppable, Killable {
         if (index.delayLineTimer != null) {
             index.delayLineTimer.cancel();
         }
+
+        if (index.writeBehindTimer != null) {
+            index.writeBehindTimer.cancel();
+            index.flushWriteBehind();
+        }
+
+        index.bulkLoadMode.finishAll();
     }
 
     @Override
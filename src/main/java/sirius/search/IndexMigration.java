@@ -0,0 +1,337 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import com.google.common.collect.ImmutableMap;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.cluster.metadata.AliasOrIndex;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.sort.SortOrder;
+import sirius.kernel.async.TaskContext;
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Migrates all indices into new physical indices without any downtime or lost writes.
+ * <p>
+ * The migration performs the following steps:
+ * <ol>
+ * <li>New physical indices are created using a versioned prefix (e.g. <tt>myapp-v1522240000000-core</tt>).</li>
+ * <li>All writes performed by {@link IndexAccess} are also applied to the new indices (dual writes). These use
+ * the version of the original document as external version.</li>
+ * <li>All documents are copied using a {@link ReIndexTask}. As this also uses external versions, a copy never
+ * replaces a newer document written by a dual write.</li>
+ * <li>A catch-up pass copies documents which are outdated in the new index and removes documents which have been
+ * deleted in the meantime. A final pass, right before switching to the new indices, copies all documents which are
+ * still outdated, e.g. due to a {@link ScriptedUpdate} which isn't mirrored.</li>
+ * <li>The names used by the application are atomically switched to aliases pointing to the new indices. The
+ * previous physical indices are deleted.</li>
+ * </ol>
+ * As the application always uses the same (unversioned) index names, neither a re-configuration nor a restart is
+ * required.
+ */
+class IndexMigration implements Runnable {
+
+    private static final int BLOCK_SIZE = 500;
+    private static final long FIVE_MINUTES = 5 * 60L;
+
+    private final Schema schema;
+    private final IndexAccess access;
+    private final String indexPrefix;
+    private final String versionPrefix;
+    private TaskContext taskContext;
+
+    IndexMigration(Schema schema, IndexAccess access, String indexPrefix) {
+        this.schema = schema;
+        this.access = access;
+        this.indexPrefix = indexPrefix;
+        this.versionPrefix = indexPrefix + "v" + System.currentTimeMillis() + "-";
+    }
+
+    @Override
+    public void run() {
+        taskContext = TaskContext.get();
+        Map<String, String> targets = new TreeMap<>();
+        for (EntityDescriptor ed : schema.descriptorTable.values()) {
+            targets.put(indexPrefix + ed.getIndex(), versionPrefix + ed.getIndex());
+        }
+
+        IndexAccess.LOG.INFO("Migrating all indices to: " + versionPrefix);
+        for (String result : schema.createMappings(versionPrefix)) {
+            IndexAccess.LOG.INFO(result);
+        }
+
+        List<String> obsoleteIndices;
+        access.dualWriteTargets = ImmutableMap.copyOf(targets);
+        try {
+            // Makes all writes which were performed before the dual writes started visible to the copy...
+            refresh(targets.keySet());
+            ReIndexTask copy = new ReIndexTask(schema, versionPrefix);
+            copy.run();
+            if (!copy.isCompleted() || !taskContext.isActive()) {
+                abort(targets.values());
+                return;
+            }
+
+            refresh(targets.keySet());
+            refresh(targets.values());
+            for (EntityDescriptor ed : schema.descriptorTable.values()) {
+                catchUp(ed);
+            }
+
+            // Writes which are applied by ElasticSearch itself for many documents at once (e.g. a ScriptedUpdate)
+            // are not mirrored. Therefore a final version diff is performed right before switching the aliases...
+            refresh(targets.keySet());
+            refresh(targets.values());
+            for (EntityDescriptor ed : schema.descriptorTable.values()) {
+                copyAllOutdated(ed);
+            }
+
+            // A cancelled catch-up stops silently, therefore we must not switch to incomplete indices...
+            if (!taskContext.isActive()) {
+                abort(targets.values());
+                return;
+            }
+
+            obsoleteIndices = swapAliases(targets);
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to migrate the indices to %s: %s (%s)", versionPrefix)
+                      .handle();
+            abort(targets.values());
+            return;
+        } finally {
+            access.dualWriteTargets = Collections.emptyMap();
+        }
+
+        if (!obsoleteIndices.isEmpty()) {
+            deleteIndices(obsoleteIndices);
+        }
+        IndexAccess.LOG.INFO("Migration to %s is COMPLETED!", versionPrefix);
+    }
+
+    private void abort(Collection<String> newIndices) {
+        IndexAccess.LOG.WARN("Migration to %s was ABORTED. Deleting the new indices...", versionPrefix);
+        access.dualWriteTargets = Collections.emptyMap();
+        deleteIndices(newIndices);
+    }
+
+    private void refresh(Collection<String> indices) {
+        access.getClient().admin().indices().prepareRefresh(indices.toArray(new String[indices.size()])).get();
+    }
+
+    private void deleteIndices(Collection<String> indices) {
+        try {
+            access.getClient()
+                  .admin()
+                  .indices()
+                  .prepareDelete(indices.toArray(new String[indices.size()]))
+                  .execute()
+                  .get(30, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to delete the indices %s: %s (%s)", indices)
+                      .handle();
+        }
+    }
+
+    /*
+     * Fixes all differences between the original index and the new one, which might have been caused by
+     * writes which happened while the copy was running (e.g. deleted documents which were copied nevertheless).
+     */
+    private void catchUp(EntityDescriptor ed) {
+        String sourceIndex = indexPrefix + ed.getIndex();
+        String targetIndex = versionPrefix + ed.getIndex();
+        taskContext.setState("Catching up %s.%s", targetIndex, ed.getType());
+
+        scrollIds(sourceIndex, ed, hits -> copyOutdated(ed, sourceIndex, targetIndex, hits));
+        scrollIds(targetIndex, ed, hits -> removeDeleted(ed, sourceIndex, targetIndex, hits));
+    }
+
+    /*
+     * Copies all documents which are missing or outdated in the new index.
+     */
+    private void copyAllOutdated(EntityDescriptor ed) {
+        String sourceIndex = indexPrefix + ed.getIndex();
+        String targetIndex = versionPrefix + ed.getIndex();
+        taskContext.setState("Verifying %s.%s", targetIndex, ed.getType());
+
+        scrollIds(sourceIndex, ed, hits -> copyOutdated(ed, sourceIndex, targetIndex, hits));
+    }
+
+    private void scrollIds(String index, EntityDescriptor ed, Consumer<SearchHit[]> blockHandler) {
+        SearchResponse searchResponse = access.getClient()
+                                              .prepareSearch(index)
+                                              .setTypes(ed.getType())
+                                              .addSort("_doc", SortOrder.ASC)
+                                              .setFetchSource(false)
+                                              .setVersion(true)
+                                              .setSize(BLOCK_SIZE)
+                                              .setScroll(TimeValue.timeValueSeconds(FIVE_MINUTES))
+                                              .execute()
+                                              .actionGet();
+        try {
+            while (searchResponse.getHits().getHits().length > 0 && taskContext.isActive()) {
+                blockHandler.accept(searchResponse.getHits().getHits());
+                searchResponse = access.getClient()
+                                       .prepareSearchScroll(searchResponse.getScrollId())
+                                       .setScroll(TimeValue.timeValueSeconds(FIVE_MINUTES))
+                                       .execute()
+                                       .actionGet();
+            }
+        } finally {
+            access.getClient().prepareClearScroll().addScrollId(searchResponse.getScrollId()).execute().actionGet();
+        }
+    }
+
+    private MultiGetResponse multiGet(String index, EntityDescriptor ed, List<SearchHit> hits, boolean fetchSource) {
+        FetchSourceContext fetchSourceContext =
+                fetchSource ? FetchSourceContext.FETCH_SOURCE : FetchSourceContext.DO_NOT_FETCH_SOURCE;
+        MultiGetRequestBuilder mgrb = access.getClient().prepareMultiGet();
+        for (SearchHit hit : hits) {
+            MultiGetRequest.Item item = new MultiGetRequest.Item(index, ed.getType(), hit.getId());
+            mgrb.add(item.routing(getRouting(hit)).fetchSourceContext(fetchSourceContext));
+        }
+        return mgrb.execute().actionGet();
+    }
+
+    @Nullable
+    private static String getRouting(SearchHit hit) {
+        DocumentField routing = hit.field("_routing");
+        return routing == null ? null : String.valueOf(routing.getValue());
+    }
+
+    /*
+     * Copies all documents of the given block which are missing or outdated in the target index.
+     */
+    private void copyOutdated(EntityDescriptor ed, String sourceIndex, String targetIndex, SearchHit[] sourceHits) {
+        List<SearchHit> hits = new ArrayList<>();
+        Collections.addAll(hits, sourceHits);
+        MultiGetResponse targetDocs = multiGet(targetIndex, ed, hits, false);
+        List<SearchHit> outdatedHits = new ArrayList<>();
+        for (int i = 0; i < hits.size(); i++) {
+            MultiGetItemResponse targetDoc = targetDocs.getResponses()[i];
+            if (targetDoc.isFailed()
+                || !targetDoc.getResponse().isExists()
+                || targetDoc.getResponse().getVersion() < hits.get(i).getVersion()) {
+                outdatedHits.add(hits.get(i));
+            }
+        }
+        if (outdatedHits.isEmpty()) {
+            return;
+        }
+
+        BulkRequestBuilder bulk = access.getClient().prepareBulk();
+        MultiGetResponse sourceDocs = multiGet(sourceIndex, ed, outdatedHits, true);
+        for (int i = 0; i < outdatedHits.size(); i++) {
+            MultiGetItemResponse sourceDoc = sourceDocs.getResponses()[i];
+            if (!sourceDoc.isFailed() && sourceDoc.getResponse().isExists()) {
+                bulk.add(access.getClient()
+                               .prepareIndex(targetIndex, ed.getType(), sourceDoc.getId())
+                               .setRouting(getRouting(outdatedHits.get(i)))
+                               .setSource(sourceDoc.getResponse().getSourceAsBytesRef(), XContentType.JSON)
+                               .setVersion(sourceDoc.getResponse().getVersion())
+                               .setVersionType(VersionType.EXTERNAL));
+            }
+        }
+        if (bulk.numberOfActions() > 0) {
+            // Conflicts are expected here (a dual write was faster) and can therefore be ignored...
+            bulk.execute().actionGet();
+        }
+    }
+
+    /*
+     * Removes all documents of the given block from the target index which no longer exist in the source index.
+     */
+    private void removeDeleted(EntityDescriptor ed, String sourceIndex, String targetIndex, SearchHit[] targetHits) {
+        List<SearchHit> hits = new ArrayList<>();
+        Collections.addAll(hits, targetHits);
+        MultiGetResponse sourceDocs = multiGet(sourceIndex, ed, hits, false);
+        BulkRequestBuilder bulk = access.getClient().prepareBulk();
+        for (int i = 0; i < hits.size(); i++) {
+            MultiGetItemResponse sourceDoc = sourceDocs.getResponses()[i];
+            if (!sourceDoc.isFailed() && !sourceDoc.getResponse().isExists()) {
+                // The delete is guarded by the current version so that a document which has been re-created by a
+                // dual write in the meantime isn't deleted...
+                bulk.add(access.getClient()
+                               .prepareDelete(targetIndex, ed.getType(), hits.get(i).getId())
+                               .setRouting(getRouting(hits.get(i)))
+                               .setVersion(hits.get(i).getVersion()));
+            }
+        }
+        if (bulk.numberOfActions() > 0) {
+            bulk.execute().actionGet();
+        }
+    }
+
+    /*
+     * Atomically points all index names used by the application to the new indices. Returns the physical indices
+     * which were previously used behind an alias and can now be deleted.
+     */
+    private List<String> swapAliases(Map<String, String> targets) throws Exception {
+        MetaData metaData = access.getClient()
+                                  .admin()
+                                  .cluster()
+                                  .prepareState()
+                                  .clear()
+                                  .setMetaData(true)
+                                  .execute()
+                                  .get(10, TimeUnit.SECONDS)
+                                  .getState()
+                                  .getMetaData();
+        List<String> obsoleteIndices = new ArrayList<>();
+        IndicesAliasesRequestBuilder aliases = access.getClient().admin().indices().prepareAliases();
+        for (Map.Entry<String, String> target : targets.entrySet()) {
+            AliasOrIndex current = metaData.getAliasAndIndexLookup().get(target.getKey());
+            if (current != null && current.isAlias()) {
+                for (IndexMetaData indexMetaData : current.getIndices()) {
+                    aliases.removeAlias(indexMetaData.getIndex().getName(), target.getKey());
+                    obsoleteIndices.add(indexMetaData.getIndex().getName());
+                }
+            } else if (current != null) {
+                // The index name is still used by a physical index, which is deleted along with creating the alias
+                aliases.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(target.getKey()));
+            }
+            aliases.addAlias(target.getValue(), target.getKey());
+        }
+
+        if (!aliases.execute().get(30, TimeUnit.SECONDS).isAcknowledged()) {
+            throw new IllegalStateException("Switching the aliases was not acknowledged");
+        }
+
+        return obsoleteIndices;
+    }
+}
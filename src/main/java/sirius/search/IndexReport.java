@@ -52,6 +52,11 @@ public class IndexReport implements MetricProvider {
                          "ES-DelayLine",
                          IndexAccess.oneSecondDelayLine.size(),
                          null);
+        collector.metric("index_write_behind",
+                         "index-write-behind",
+                         "ES-WriteBehind-Buffer",
+                         index.writeBehindBuffer.size(),
+                         null);
         collector.differentialMetric("index-blocks", "index-blocks", "ES-DelayBlocks", index.blocks.getCount(), "/min");
         collector.differentialMetric("index-delays", "index-delays", "ES-Delays", index.delays.getCount(), "/min");
         collector.differentialMetric("index-locking-errors",
@@ -59,6 +64,16 @@ public class IndexReport implements MetricProvider {
                                      "ES-OptimisticLock-Errors",
                                      index.optimisticLockErrors.getCount(),
                                      "/min");
+        collector.differentialMetric("index-merged-conflicts",
+                                     "index-merged-conflicts",
+                                     "ES-Merged-Conflicts",
+                                     index.mergedConflicts.getCount(),
+                                     "/min");
+        collector.differentialMetric("index-skipped-writes",
+                                     "index-skipped-writes",
+                                     "ES-Skipped-Writes",
+                                     index.skippedWrites.getCount(),
+                                     "/min");
         collector.metric("index_query_duration",
                          "index-queryDuration",
                          "ES-QueryDuration",
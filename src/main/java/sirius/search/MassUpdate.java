@@ -0,0 +1,220 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import sirius.kernel.async.TaskContext;
+import sirius.kernel.async.Tasks;
+import sirius.kernel.commons.Callback;
+import sirius.kernel.commons.RateLimit;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.health.Exceptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a modifier to all entities matched by a query and writes them back using bulk requests.
+ * <p>
+ * The entities are read via a scroll query and collected into batches. Each batch is written by a version checked
+ * bulk request in a separate thread, so that the scroll and several bulk requests run concurrently. Entities which
+ * were modified concurrently are re-fetched, modified again and re-written - without repeating the whole batch.
+ * Entities which remain unchanged by the modifier are not written at all (unless {@link Entity#forceUpdate()} is
+ * called).
+ * <p>
+ * Use {@link Query#updateEach(Callback)} rather than using this class directly.
+ *
+ * @param <E> the type of entities being updated
+ */
+class MassUpdate<E extends Entity> {
+
+    /**
+     * Contains the name of the executor which writes the batches.
+     */
+    private static final String EXECUTOR_MASS_UPDATE = "index-mass-update";
+
+    /**
+     * Determines how often a concurrently modified entity is re-fetched and modified again before giving up.
+     */
+    private static final int MAX_CONFLICT_RETRIES = 3;
+
+    @Part
+    private static IndexAccess index;
+
+    @Part
+    private static Tasks tasks;
+
+    @ConfigValue("index.massUpdate.batchSize")
+    private static int batchSize;
+
+    @ConfigValue("index.massUpdate.parallelism")
+    private static int parallelism;
+
+    private final Query<E> query;
+    private final Callback<E> modifier;
+    private final Semaphore pendingBatches;
+    private final int numPermits;
+    private final AtomicLong updatedEntities = new AtomicLong();
+    private final AtomicLong retriedEntities = new AtomicLong();
+    private final AtomicLong failedEntities = new AtomicLong();
+    private long readEntities;
+
+    MassUpdate(Query<E> query, Callback<E> modifier) {
+        this.query = query;
+        this.modifier = modifier;
+        this.numPermits = Math.max(1, parallelism);
+        this.pendingBatches = new Semaphore(numPermits);
+    }
+
+    /**
+     * Scrolls through the result of the query and updates each entity.
+     *
+     * @return the number of entities which have been updated
+     */
+    long execute() {
+        Watch w = Watch.start();
+        TaskContext ctx = TaskContext.get();
+        RateLimit rateLimit = RateLimit.timeInterval(5, TimeUnit.SECONDS);
+        List<E> batch = new ArrayList<>(batchSize);
+        query.iterate(entity -> {
+            readEntities++;
+            if (modify(entity)) {
+                batch.add(entity);
+            }
+            if (batch.size() >= batchSize) {
+                submit(new ArrayList<>(batch));
+                batch.clear();
+            }
+            if (rateLimit.check()) {
+                ctx.setState("Updating... (%s of %s entities written)", updatedEntities.get(), readEntities);
+            }
+            return ctx.isActive();
+        });
+        if (!batch.isEmpty()) {
+            submit(batch);
+        }
+        awaitBatches();
+
+        if (failedEntities.get() > 0) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .withSystemErrorMessage("Failed to update %s of %s entities. See the log for details.",
+                                                    failedEntities.get(),
+                                                    readEntities)
+                            .handle();
+        }
+        IndexAccess.LOG.INFO("Updated %s of %s entities (%s retried due to concurrent modifications) in %s",
+                             updatedEntities.get(),
+                             readEntities,
+                             retriedEntities.get(),
+                             w.duration());
+        return updatedEntities.get();
+    }
+
+    private boolean modify(E entity) {
+        try {
+            modifier.invoke(entity);
+            // Just like IndexAccess.update, we skip entities which haven't been changed at all...
+            return !index.isUnchanged(entity, true, false);
+        } catch (Exception e) {
+            failedEntities.incrementAndGet();
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to modify '%s' (%s): %s (%s)",
+                                              entity.toDebugString(),
+                                              entity.getId())
+                      .handle();
+            return false;
+        }
+    }
+
+    private void submit(List<E> batch) {
+        try {
+            // Limits the number of batches being kept in memory and written concurrently...
+            pendingBatches.acquire();
+        } catch (InterruptedException e) {
+            Exceptions.ignore(e);
+            Thread.currentThread().interrupt();
+            failedEntities.addAndGet(batch.size());
+            return;
+        }
+        tasks.executor(EXECUTOR_MASS_UPDATE).fork(() -> {
+            try {
+                writeBatch(batch);
+            } finally {
+                pendingBatches.release();
+            }
+        });
+    }
+
+    private void awaitBatches() {
+        try {
+            pendingBatches.acquire(numPermits);
+            pendingBatches.release(numPermits);
+        } catch (InterruptedException e) {
+            Exceptions.ignore(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatch(List<E> batch) {
+        List<E> pending = batch;
+        int attempt = 0;
+        while (!pending.isEmpty()) {
+            List<E> conflicts = tryWrite(pending);
+            if (conflicts.isEmpty()) {
+                return;
+            }
+            if (++attempt > MAX_CONFLICT_RETRIES) {
+                failedEntities.addAndGet(conflicts.size());
+                IndexAccess.LOG.WARN("Failed to update %s entities due to repeated concurrent modifications: %s",
+                                     conflicts.size(),
+                                     conflicts);
+                return;
+            }
+            retriedEntities.addAndGet(conflicts.size());
+            pending = refetchAndModify(conflicts);
+        }
+    }
+
+    private List<E> tryWrite(List<E> entities) {
+        try {
+            List<E> failures = new ArrayList<>();
+            List<E> conflicts = index.tryUpdateBulk(entities, failures);
+            failedEntities.addAndGet(failures.size());
+            updatedEntities.addAndGet(entities.size() - conflicts.size() - failures.size());
+            return conflicts;
+        } catch (Exception e) {
+            failedEntities.addAndGet(entities.size());
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to write a batch of %s entities: %s (%s)", entities.size())
+                      .handle();
+            return new ArrayList<>();
+        }
+    }
+
+    private List<E> refetchAndModify(List<E> conflicts) {
+        List<E> result = new ArrayList<>(conflicts.size());
+        for (E entity : conflicts) {
+            E current = index.refreshOrNull(entity);
+            // Entities which have been deleted in the meantime are simply skipped...
+            if (current != null && modify(current)) {
+                result.add(current);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.ScoreSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.Microtiming;
+import sirius.search.constraints.Constraint;
+import sirius.search.constraints.FieldEqual;
+import sirius.search.constraints.RobustQueryParser;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Searches the entities of several types using a single request.
+ * <p>
+ * Instead of executing one {@link Query} per entity class and merging the results, all indices of the given types
+ * are searched at once. Therefore the results are ranked by a common relevance and sorting and limits apply to the
+ * combined result. Each hit is turned into an entity of the appropriate class, based on its <tt>_type</tt> and
+ * <tt>_index</tt>.
+ * <p>
+ * All constraints and sort fields are applied to all types, therefore these should only refer to fields which are
+ * present in all types. As this is mostly used for global searches, no routing is applied. Use
+ * {@link IndexAccess#selectAll(Class[])} to create an instance.
+ */
+public class MultiTypeQuery {
+
+    private static final int DEFAULT_LIMIT = 999;
+
+    private final IndexAccess index;
+    private final Map<String, List<EntityDescriptor>> descriptorsByType = new LinkedHashMap<>();
+    private final Set<String> indices = new LinkedHashSet<>();
+    private final List<Constraint> constraints = new ArrayList<>();
+    private final List<SortBuilder<?>> orderBys = new ArrayList<>();
+    private int start;
+    private int limit = DEFAULT_LIMIT;
+    private boolean readOnly;
+    private Map<String, String> aliasesByPhysicalIndex;
+
+    /**
+     * Creates a new query which searches all entities of the given types.
+     *
+     * @param index the IndexAccess instance
+     * @param types the entity classes to search in
+     */
+    protected MultiTypeQuery(IndexAccess index, List<Class<? extends Entity>> types) {
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("At least one entity class has to be given.");
+        }
+        this.index = index;
+        for (Class<? extends Entity> type : types) {
+            EntityDescriptor descriptor = index.getDescriptor(type);
+            descriptorsByType.computeIfAbsent(descriptor.getType(), ignored -> new ArrayList<>()).add(descriptor);
+            indices.add(index.getIndexName(descriptor.getIndex()));
+        }
+    }
+
+    /**
+     * Adds the given constraints to the query.
+     * <p>
+     * All constraints are combined together using AND logic, meaning that all constraints need to be satisfied.
+     *
+     * @param constraints the array of constraints to add
+     * @return the query itself for fluent method calls
+     */
+    public MultiTypeQuery where(Constraint... constraints) {
+        this.constraints.addAll(Arrays.asList(constraints));
+        return this;
+    }
+
+    /**
+     * Adds an <tt>equals</tt> constraint for the given field and value.
+     *
+     * @param field the field to check
+     * @param value the value to compare against
+     * @return the query itself for fluent method calls
+     * @see FieldEqual
+     */
+    public MultiTypeQuery eq(String field, Object value) {
+        constraints.add(FieldEqual.on(field, value));
+        return this;
+    }
+
+    /**
+     * Adds a textual query across all searchable fields.
+     * <p>
+     * The query is parsed just like by {@link Query#query(String)}. If a single term query is given, an expansion
+     * like "term*" will be added.
+     *
+     * @param query the query to search for
+     * @return the query itself for fluent method calls
+     */
+    public MultiTypeQuery query(String query) {
+        if (Strings.isFilled(query)) {
+            RobustQueryParser constraint =
+                    new RobustQueryParser(query, Query.DEFAULT_FIELD, Query::defaultTokenizer, true);
+            if (!constraint.isEmpty()) {
+                where(constraint);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds an order by clause for the given field in ascending order.
+     * <p>
+     * Use <tt>_score</tt> to order by relevance, which is also the default if no order is given.
+     *
+     * @param field the field to order by
+     * @return the query itself for fluent method calls
+     */
+    public MultiTypeQuery orderByAsc(String field) {
+        return orderBy(field, SortOrder.ASC);
+    }
+
+    /**
+     * Adds an order by clause for the given field in descending order.
+     * <p>
+     * Use <tt>_score</tt> to order by relevance, which is also the default if no order is given.
+     *
+     * @param field the field to order by
+     * @return the query itself for fluent method calls
+     */
+    public MultiTypeQuery orderByDesc(String field) {
+        return orderBy(field, SortOrder.DESC);
+    }
+
+    private MultiTypeQuery orderBy(String field, SortOrder order) {
+        if (field.equals(ScoreSortBuilder.NAME)) {
+            orderBys.add(SortBuilders.scoreSort().order(order));
+        } else {
+            orderBys.add(SortBuilders.fieldSort(field).order(order));
+        }
+        return this;
+    }
+
+    /**
+     * Limits the query to the given window of the combined result.
+     * <p>
+     * If no limit is given, a limit of <tt>999</tt> is enforced.
+     *
+     * @param start the zero based index of the first requested item from within the result
+     * @param limit the max. number of items to return
+     * @return the query itself for fluent method calls
+     */
+    public MultiTypeQuery limit(int start, int limit) {
+        this.start = Math.max(0, start);
+        this.limit = Math.max(0, limit);
+        return this;
+    }
+
+    /**
+     * Marks all resulting entities as read-only, which skips tracking their source.
+     *
+     * @return the query itself for fluent method calls
+     */
+    public MultiTypeQuery readOnly() {
+        this.readOnly = true;
+        return this;
+    }
+
+    /**
+     * Executes the query and returns a list of all matching entities of all types.
+     *
+     * @return the list of matching entities ordered by relevance or the given sort order
+     */
+    @Nonnull
+    public List<Entity> queryList() {
+        return queryResultList().getResults();
+    }
+
+    /**
+     * Executes the query and returns a list of all matching entities of all types along with the total number
+     * of hits.
+     *
+     * @return the list of matching entities ordered by relevance or the given sort order
+     */
+    @Nonnull
+    public ResultList<Entity> queryResultList() {
+        try {
+            Watch w = Watch.start();
+            SearchRequestBuilder srb = buildSearch();
+            if (IndexAccess.LOG.isFINE()) {
+                IndexAccess.LOG.FINE("MULTI-TYPE-SEARCH: %s.%s: %s", indices, descriptorsByType.keySet(), srb);
+            }
+            SearchResponse response = srb.execute().actionGet();
+            if (Microtiming.isEnabled()) {
+                w.submitMicroTiming("ES", "MULTI-TYPE-LIST: " + descriptorsByType.keySet());
+            }
+            return new ResultList<>(new ArrayList<>(), response, this::createEntity);
+        } catch (Exception e) {
+            throw Exceptions.handle(IndexAccess.LOG, e);
+        }
+    }
+
+    /**
+     * Executes the query and counts the number of matching entities of all types.
+     *
+     * @return the number of matching entities
+     */
+    public long count() {
+        try {
+            return buildSearch().setSize(0).setFrom(0).execute().actionGet().getHits().getTotalHits();
+        } catch (Exception e) {
+            throw Exceptions.handle(IndexAccess.LOG, e);
+        }
+    }
+
+    private SearchRequestBuilder buildSearch() {
+        SearchRequestBuilder srb = index.getClient()
+                                        .prepareSearch(indices.toArray(new String[0]))
+                                        .setTypes(descriptorsByType.keySet().toArray(new String[0]))
+                                        .setVersion(true)
+                                        .setFrom(start)
+                                        .setSize(limit);
+        QueryBuilder qb = buildQuery();
+        if (qb != null) {
+            srb.setQuery(qb);
+        }
+        orderBys.forEach(srb::addSort);
+        return srb;
+    }
+
+    private QueryBuilder buildQuery() {
+        List<QueryBuilder> queries = constraints.stream()
+                                                .map(Constraint::createQuery)
+                                                .filter(Objects::nonNull)
+                                                .collect(Collectors.toList());
+        if (queries.isEmpty()) {
+            return null;
+        } else if (queries.size() == 1) {
+            return queries.get(0);
+        } else {
+            BoolQueryBuilder result = QueryBuilders.boolQuery();
+            queries.forEach(result::must);
+            return result;
+        }
+    }
+
+    private Entity createEntity(SearchHit hit) {
+        return Query.createEntity(findDescriptor(hit), hit, !readOnly);
+    }
+
+    /*
+     * Usually the type of the hit is unique. Only if several indices share a type name, the (physical) index of
+     * the hit is used to determine the entity class.
+     */
+    private EntityDescriptor findDescriptor(SearchHit hit) {
+        List<EntityDescriptor> candidates = descriptorsByType.getOrDefault(hit.getType(), Collections.emptyList());
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        String indexName = resolveIndexName(hit.getIndex());
+        for (EntityDescriptor descriptor : candidates) {
+            if (index.getIndexName(descriptor.getIndex()).equals(indexName)) {
+                return descriptor;
+            }
+        }
+        throw new IllegalStateException(Strings.apply("Unexpected type %s of hit %s in %s",
+                                                      hit.getType(),
+                                                      hit.getId(),
+                                                      hit.getIndex()));
+    }
+
+    /*
+     * The index of a hit is always the physical index. If the searched names are aliases (e.g. after an index
+     * migration), these are resolved once to determine which name was searched.
+     */
+    private String resolveIndexName(String physicalIndex) {
+        if (indices.contains(physicalIndex)) {
+            return physicalIndex;
+        }
+        if (aliasesByPhysicalIndex == null) {
+            aliasesByPhysicalIndex = new HashMap<>();
+            for (String name : indices) {
+                for (String physicalName : index.getClient()
+                                                .admin()
+                                                .indices()
+                                                .prepareGetIndex()
+                                                .setIndices(name)
+                                                .get()
+                                                .getIndices()) {
+                    aliasesByPhysicalIndex.put(physicalName, name);
+                }
+            }
+        }
+        return aliasesByPhysicalIndex.get(physicalIndex);
+    }
+}
@@ -8,6 +8,7 @@
 
 package sirius.search;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.apache.lucene.analysis.TokenStream;
@@ -20,6 +21,8 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
 import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilder;
+import org.elasticsearch.index.reindex.UpdateByQueryAction;
+import org.elasticsearch.index.reindex.UpdateByQueryRequestBuilder;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.AggregationBuilder;
@@ -36,6 +39,7 @@ import org.elasticsearch.search.sort.SortOrder;
 import sirius.kernel.async.ExecutionPoint;
 import sirius.kernel.async.TaskContext;
 import sirius.kernel.cache.ValueComputer;
+import sirius.kernel.commons.Callback;
 import sirius.kernel.commons.Lambdas;
 import sirius.kernel.commons.Limit;
 import sirius.kernel.commons.Monoflop;
@@ -67,15 +71,21 @@ import sirius.web.security.UserContext;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
 
 /**
  * Represents a query against the database which are created via {@link IndexAccess#select(Class)}.
@@ -90,6 +100,12 @@ public class Query<E extends Entity> {
     private static final int SCROLL_TTL_SECONDS = 60 * 5;
     private static final int MAX_SCROLL_RESULTS_FOR_SINGLE_SHARD = 50;
     private static final int MAX_SCROLL_RESULTS_PER_SHARD = 10;
+    private static final int COLUMN_BLOCK_SIZE = 1024;
+    private static final byte[] EXPORT_TYPE_FIELD = "{\"_type\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EXPORT_ID_FIELD = ",\"_id\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EXPORT_VERSION_FIELD = ",\"_version\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EXPORT_SOURCE_FIELD = ",\"_source\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EXPORT_END_OF_LINE = "}\n".getBytes(StandardCharsets.UTF_8);
     private static final int MAX_QUERY_LENGTH = 100;
 
     /**
@@ -124,6 +140,9 @@ public class Query<E extends Entity> {
     protected boolean logQuery;
     // Used to signal that deliberately no routing was given
     private boolean deliberatelyUnrouted;
+    private boolean readOnly;
+    private String[] fields;
+    private List<Property> columns;
     private int scrollTTL = SCROLL_TTL_SECONDS;
 
     @Part
@@ -553,6 +572,74 @@ public class Query<E extends Entity> {
         return this;
     }
 
+    /**
+     * Marks the query as read only.
+     * <p>
+     * The original state of the resulting entities isn't tracked, which saves the memory and time required to copy
+     * their values. This is intended for reports or exports which never modify the entities. The resulting entities
+     * are marked as read only and will be rejected by {@link IndexAccess#update(Entity)}.
+     *
+     * @return the query itself for fluent method calls
+     */
+    public Query<E> readOnly() {
+        this.readOnly = true;
+        return this;
+    }
+
+    /**
+     * Limits the loaded fields of the resulting entities to the given ones.
+     * <p>
+     * Only the given fields are fetched from the <tt>_source</tt> of each document, all other properties of the
+     * resulting entities remain empty. As such partially loaded entities must never be written back, they are
+     * marked as read only (see {@link #readOnly()}).
+     *
+     * @param fields the names of the fields to load
+     * @return the query itself for fluent method calls
+     */
+    public Query<E> fields(String... fields) {
+        EntityDescriptor descriptor = indexAccess.getDescriptor(clazz);
+        for (String field : fields) {
+            if (descriptor.getProperty(field) == null) {
+                throw new IllegalArgumentException(String.format("Unknown field '%s' in type %s",
+                                                                 field,
+                                                                 descriptor.getType()));
+            }
+        }
+        this.fields = fields;
+        return this;
+    }
+
+    /**
+     * Specifies the numeric fields to fetch via {@link #iterateColumns(ResultHandler)}.
+     * <p>
+     * The values are read from the doc values of the given fields, therefore no <tt>_source</tt> is fetched and
+     * no entities are created. See {@link ColumnBlock#isSupported(Property)} for which fields can be used. The
+     * selection only applies to {@link #iterateColumns(ResultHandler)}, all other methods of this query still
+     * load the entities as usual.
+     *
+     * @param fields the names of the numeric fields to fetch
+     * @return the query itself for fluent method calls
+     */
+    public Query<E> columns(String... fields) {
+        this.columns = resolveColumns(fields);
+        return this;
+    }
+
+    private List<Property> resolveColumns(String... fields) {
+        EntityDescriptor descriptor = indexAccess.getDescriptor(clazz);
+        List<Property> result = new ArrayList<>();
+        for (String field : fields) {
+            Property property = descriptor.getProperty(field);
+            if (property == null || !ColumnBlock.isSupported(property)) {
+                throw new IllegalArgumentException(String.format("Field '%s' in type %s is not a numeric field",
+                                                                 field,
+                                                                 descriptor.getType()));
+            }
+            result.add(property);
+        }
+        return result;
+    }
+
     /**
      * Adds a {@link SortBuilder} to do an arbitrary sort.
      *
@@ -932,6 +1019,15 @@ public class Query<E extends Entity> {
     }
 
     private SearchRequestBuilder buildSearch() {
+        return buildSearch(null);
+    }
+
+    /*
+     * Builds the search request. If docValueFields are given, no _source but only the doc values of these fields
+     * are fetched for this very request (an empty list therefore only fetches the ids), independent of the
+     * fields selected for the query.
+     */
+    private SearchRequestBuilder buildSearch(@Nullable List<Property> docValueFields) {
         EntityDescriptor ed = indexAccess.getDescriptor(clazz);
         SearchRequestBuilder srb = indexAccess.getClient()
                                               .prepareSearch(index != null ?
@@ -941,6 +1037,17 @@ public class Query<E extends Entity> {
         srb.setVersion(true);
         srb.setExplain(explain);
 
+        if (docValueFields != null) {
+            srb.setFetchSource(false);
+            docValueFields.forEach(field -> srb.addDocValueField(field.getName()));
+        } else if (fields != null) {
+            if (fields.length == 0) {
+                srb.setFetchSource(false);
+            } else {
+                srb.setFetchSource(fields, null);
+            }
+        }
+
         if (primary) {
             srb.setPreference("_primary");
         }
@@ -1082,6 +1189,27 @@ public class Query<E extends Entity> {
         }
     }
 
+    /**
+     * Executes the query and returns the ids of all matching entities.
+     * <p>
+     * As no <tt>_source</tt> is fetched at all, this is way more efficient than loading the entities just to
+     * access their ids. Just like {@link #queryList()} a limit of <tt>999</tt> is enforced, if no limit is given.
+     * Use {@link #iterateIds(ResultHandler)} to process large results.
+     *
+     * @return the ids of all matching entities
+     */
+    @Nonnull
+    public List<String> ids() {
+        if (forceFail) {
+            return new ArrayList<>();
+        }
+        List<String> result = new ArrayList<>();
+        for (SearchHit hit : queryRaw(Collections.emptyList()).getHits()) {
+            result.add(hit.getId());
+        }
+        return result;
+    }
+
     /**
      * Can be used to return the raw {@link SearchResponse}. This can e.g. be useful in combination with the top-hits
      * aggregation where the aggregated hits need to be parsed from the aggregation section of the response.
@@ -1089,6 +1217,10 @@ public class Query<E extends Entity> {
      * @return the raw {@link SearchResponse}
      */
     public SearchResponse queryRaw() {
+        return queryRaw(null);
+    }
+
+    private SearchResponse queryRaw(@Nullable List<Property> docValueFields) {
         if (forceFail) {
             return new SearchResponse();
         }
@@ -1099,7 +1231,7 @@ public class Query<E extends Entity> {
             defaultLimitEnforced = true;
         }
 
-        SearchRequestBuilder srb = buildSearch();
+        SearchRequestBuilder srb = buildSearch(docValueFields);
         if (IndexAccess.LOG.isFINE()) {
             IndexAccess.LOG.FINE("SEARCH: %s.%s: %s",
                                  indexAccess.getIndex(clazz),
@@ -1140,15 +1272,7 @@ public class Query<E extends Entity> {
      */
     public E transformHit(SearchHit searchHit) {
         try {
-            EntityDescriptor descriptor = indexAccess.getDescriptor(clazz);
-            E entity = clazz.newInstance();
-            entity.initSourceTracing();
-            entity.setId(searchHit.getId());
-            entity.setVersion(searchHit.getVersion());
-            entity.setMatchedNamedQueries(searchHit.getMatchedQueries());
-            descriptor.readSource(entity, searchHit.getSourceAsMap());
-
-            return entity;
+            return createEntity(indexAccess.getDescriptor(clazz), searchHit);
         } catch (Exception e) {
             throw Exceptions.handle()
                             .error(e)
@@ -1158,6 +1282,44 @@ public class Query<E extends Entity> {
         }
     }
 
+    /*
+     * Materializes the given hit as entity
+     */
+    private E createEntity(EntityDescriptor descriptor, SearchHit hit) {
+        return clazz.cast(createEntity(descriptor, hit, !readOnly && fields == null));
+    }
+
+    /**
+     * Creates an entity of the type described by the given descriptor and fills it with the given hit.
+     *
+     * @param descriptor  the descriptor of the entity to create
+     * @param hit         the hit to read the id, version and source from
+     * @param trackSource determines if changes of the entity are tracked. Otherwise the entity is marked as
+     *                    read-only
+     * @return the newly created entity
+     */
+    static Entity createEntity(EntityDescriptor descriptor, SearchHit hit, boolean trackSource) {
+        Entity entity = descriptor.newInstance();
+        entity.setId(hit.getId());
+        entity.setVersion(hit.getVersion());
+        entity.setMatchedNamedQueries(hit.getMatchedQueries());
+        if (!trackSource) {
+            entity.markReadOnly();
+        }
+        if (hit.getSourceRef() != null) {
+            descriptor.readSource(entity, hit.getSourceRef());
+            if (trackSource) {
+                entity.initLazySourceTracing(hit.getSourceRef());
+            }
+        } else {
+            if (trackSource) {
+                entity.initSourceTracing();
+            }
+            descriptor.readSource(entity, Collections.emptyMap());
+        }
+        return entity;
+    }
+
     /**
      * Executes the query and counts the number of matching entities.
      *
@@ -1169,18 +1331,12 @@ public class Query<E extends Entity> {
                 return 0;
             }
 
-            EntityDescriptor ed = indexAccess.getDescriptor(clazz);
-            SearchRequestBuilder crb = indexAccess.getClient()
-                                                  .prepareSearch(index != null ? index : indexAccess.getIndex(clazz))
-                                                  .setTypes(ed.getType());
-            crb.setSize(0);
-            applyRouting(ed, crb::setRouting);
-            QueryBuilder qb = buildQuery();
-            if (qb != null) {
-                crb.setQuery(qb);
-            }
+            SearchRequestBuilder crb = buildCountSearch();
             if (IndexAccess.LOG.isFINE()) {
-                IndexAccess.LOG.FINE("COUNT: %s.%s: %s", indexAccess.getIndex(clazz), ed.getType(), buildQuery());
+                IndexAccess.LOG.FINE("COUNT: %s.%s: %s",
+                                     indexAccess.getIndex(clazz),
+                                     indexAccess.getDescriptor(clazz).getType(),
+                                     buildQuery());
             }
             return transformCount(crb);
         } catch (Exception t) {
@@ -1188,6 +1344,25 @@ public class Query<E extends Entity> {
         }
     }
 
+    /**
+     * Creates the search request used by {@link #count()} so that it can also be executed by a {@link QueryBatch}.
+     *
+     * @return the search request which only determines the number of matching entities
+     */
+    SearchRequestBuilder buildCountSearch() {
+        EntityDescriptor ed = indexAccess.getDescriptor(clazz);
+        SearchRequestBuilder crb = indexAccess.getClient()
+                                              .prepareSearch(index != null ? index : indexAccess.getIndex(clazz))
+                                              .setTypes(ed.getType());
+        crb.setSize(0);
+        applyRouting(ed, crb::setRouting);
+        QueryBuilder qb = buildQuery();
+        if (qb != null) {
+            crb.setQuery(qb);
+        }
+        return crb;
+    }
+
     private void applyRouting(EntityDescriptor ed, Consumer<String> routingTarget) {
         if (Strings.isFilled(routing)) {
             if (!ed.hasRouting()) {
@@ -1244,6 +1419,41 @@ public class Query<E extends Entity> {
         }
     }
 
+    /**
+     * Transforms the given response into a result list of this query.
+     *
+     * @param searchResponse the response of the search request created by {@link #buildResultListSearch()}
+     * @return the result list which lazily creates entities for all hits in the response
+     */
+    ResultList<E> createResultList(SearchResponse searchResponse) {
+        EntityDescriptor descriptor = indexAccess.getDescriptor(clazz);
+        return new ResultList<>(termFacets, searchResponse, hit -> createEntity(descriptor, hit));
+    }
+
+    /**
+     * Creates the search request used by {@link #queryResultList()} so that it can be executed by a
+     * {@link QueryBatch}.
+     * <p>
+     * Just like for {@link #queryResultList()}, a limit of <tt>999</tt> is enforced, if no limit is given.
+     *
+     * @return the search request which fetches the result list of this query
+     */
+    SearchRequestBuilder buildResultListSearch() {
+        if (limit == null) {
+            limit = DEFAULT_LIMIT;
+        }
+        return buildSearch();
+    }
+
+    /**
+     * Determines if the query is known to yield no results without executing it (see {@link #fail()}).
+     *
+     * @return <tt>true</tt> if the query will not be executed at all, <tt>false</tt> otherwise
+     */
+    boolean isForceFail() {
+        return forceFail;
+    }
+
     /**
      * Internal execution of the query along with the transformation of the result for a list
      *
@@ -1254,18 +1464,7 @@ public class Query<E extends Entity> {
     protected ResultList<E> transform(SearchRequestBuilder builder) throws Exception {
         Watch w = Watch.start();
         SearchResponse searchResponse = builder.execute().actionGet();
-        ResultList<E> result = new ResultList<>(termFacets, searchResponse);
-        EntityDescriptor descriptor = indexAccess.getDescriptor(clazz);
-        for (SearchHit hit : searchResponse.getHits()) {
-            E entity = clazz.newInstance();
-            entity.initSourceTracing();
-            entity.setId(hit.getId());
-            entity.setVersion(hit.getVersion());
-            entity.setMatchedNamedQueries(hit.getMatchedQueries());
-            descriptor.readSource(entity, hit.getSourceAsMap());
-
-            result.getResults().add(entity);
-        }
+        ResultList<E> result = createResultList(searchResponse);
         if (IndexAccess.LOG.isFINE()) {
             IndexAccess.LOG.FINE("SEARCH: %s.%s: SUCCESS: %d - %d ms",
                                  indexAccess.getIndex(clazz),
@@ -1291,13 +1490,7 @@ public class Query<E extends Entity> {
         SearchResponse searchResponse = builder.execute().actionGet();
         E result = null;
         if (searchResponse.getHits().getHits().length > 0) {
-            SearchHit hit = searchResponse.getHits().getHits()[0];
-            result = clazz.newInstance();
-            result.initSourceTracing();
-            result.setId(hit.getId());
-            result.setVersion(hit.getVersion());
-            result.setMatchedNamedQueries(hit.getMatchedQueries());
-            indexAccess.getDescriptor(clazz).readSource(result, hit.getSourceAsMap());
+            result = createEntity(indexAccess.getDescriptor(clazz), searchResponse.getHits().getHits()[0]);
         }
         if (IndexAccess.LOG.isFINE()) {
             IndexAccess.LOG.FINE("SEARCH-FIRST: %s.%s: SUCCESS: %d - %d ms",
@@ -1413,12 +1606,180 @@ public class Query<E extends Entity> {
      */
 
     public void iterate(ResultHandler<? super E> handler) {
+        EntityDescriptor entityDescriptor = indexAccess.getDescriptor(clazz);
+        scroll(entityDescriptor, null, hit -> handler.handleRow(createEntity(entityDescriptor, hit)));
+    }
+
+    /**
+     * Executes the result and calls the given <tt>handler</tt> for the id of each item in the result.
+     * <p>
+     * Just like {@link #iterate(ResultHandler)} this scrolls through large result sets. As no <tt>_source</tt>
+     * is fetched at all, this is way more efficient if only the ids of the matching entities are required.
+     *
+     * @param handler the handler used to process the id of each result item
+     */
+    public void iterateIds(ResultHandler<String> handler) {
+        scroll(indexAccess.getDescriptor(clazz), Collections.emptyList(), hit -> handler.handleRow(hit.getId()));
+    }
+
+    /**
+     * Scrolls through the result and writes the raw <tt>_source</tt> of each item as JSON Lines into the given stream.
+     * <p>
+     * Each line is an object containing <tt>_type</tt>, <tt>_id</tt>, <tt>_version</tt> and <tt>_source</tt> (if
+     * fetched, see {@link #fields(String...)}). The source is copied as received from ElasticSearch, so that no
+     * entities are created and no JSON is parsed. The result can be imported again using a {@link DatasetImporter}.
+     * <p>
+     * Note that the given stream is neither flushed nor closed by this method.
+     *
+     * @param out the stream to write the JSON Lines to
+     * @return the number of exported items
+     */
+    public long exportTo(OutputStream out) {
+        EntityDescriptor entityDescriptor = indexAccess.getDescriptor(clazz);
+        byte[] typeField = quoteAsJson(entityDescriptor.getType());
+        AtomicLong numItems = new AtomicLong();
+        ValueHolder<IOException> failure = ValueHolder.of(null);
+        scroll(entityDescriptor, null, hit -> {
+            try {
+                writeExportLine(out, typeField, hit);
+                numItems.incrementAndGet();
+                return true;
+            } catch (IOException e) {
+                // Abort the scroll, as the target stream is most probably no longer usable...
+                failure.set(e);
+                return false;
+            }
+        });
+        if (failure.get() != null) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(failure.get())
+                            .withSystemErrorMessage("Failed to export %s after %s items: %s (%s)",
+                                                    clazz.getName(),
+                                                    numItems.get())
+                            .handle();
+        }
+        return numItems.get();
+    }
+
+    private void writeExportLine(OutputStream out, byte[] typeField, SearchHit hit) throws IOException {
+        out.write(EXPORT_TYPE_FIELD);
+        out.write(typeField);
+        out.write(EXPORT_ID_FIELD);
+        out.write(quoteAsJson(hit.getId()));
+        out.write(EXPORT_VERSION_FIELD);
+        out.write(String.valueOf(hit.getVersion()).getBytes(StandardCharsets.UTF_8));
+        if (hit.hasSource()) {
+            out.write(EXPORT_SOURCE_FIELD);
+            hit.getSourceRef().writeTo(out);
+        }
+        out.write(EXPORT_END_OF_LINE);
+    }
+
+    private static byte[] quoteAsJson(String value) {
+        byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+        byte[] result = new byte[quoted.length + 2];
+        result[0] = '"';
+        System.arraycopy(quoted, 0, result, 1, quoted.length);
+        result[result.length - 1] = '"';
+        return result;
+    }
+
+    /**
+     * Scrolls through the result and calls the given <tt>handler</tt> for each block of column values.
+     * <p>
+     * The fields to fetch have to be specified via {@link #columns(String...)}. As neither the <tt>_source</tt> is
+     * fetched nor any entities are created, this is the most efficient way of computing values over large result
+     * sets which cannot be computed using aggregations.
+     *
+     * @param handler the handler used to process each block of values
+     */
+    public void iterateColumns(ResultHandler<ColumnBlock> handler) {
+        if (columns == null) {
+            throw new IllegalStateException("No columns have been selected. Use Query.columns to do so.");
+        }
+        iterateColumns(columns, handler);
+    }
+
+    private void iterateColumns(List<Property> selectedColumns, ResultHandler<ColumnBlock> handler) {
+        ValueHolder<ColumnBlock> block = ValueHolder.of(new ColumnBlock(selectedColumns, COLUMN_BLOCK_SIZE));
+        scroll(indexAccess.getDescriptor(clazz), selectedColumns, hit -> {
+            block.get().add(hit);
+            if (block.get().isFull()) {
+                ColumnBlock fullBlock = block.get();
+                block.set(new ColumnBlock(selectedColumns, COLUMN_BLOCK_SIZE));
+                return handler.handleRow(fullBlock);
+            }
+            return true;
+        });
+        if (!block.get().isEmpty()) {
+            try {
+                handler.handleRow(block.get());
+            } catch (Exception e) {
+                throw Exceptions.handle(IndexAccess.LOG, e);
+            }
+        }
+    }
+
+    /**
+     * Scrolls through the result and collects the values of the given integral field.
+     * <p>
+     * Entities without a value for the given field are skipped. The values are collected via
+     * {@link #iterateColumns(ResultHandler)}, therefore no boxing takes place. Note however, that the whole result
+     * is scrolled and kept in memory before the stream is returned. Use {@link #iterateColumns(ResultHandler)}
+     * directly to process huge results block by block.
+     *
+     * @param field the {@link sirius.search.properties.LongProperty} or
+     *              {@link sirius.search.properties.IntProperty} to read
+     * @return a stream of all values of the given field
+     */
+    public LongStream streamLongs(String field) {
+        LongStream.Builder result = LongStream.builder();
+        iterateColumns(resolveColumns(field), block -> {
+            long[] values = block.getLongs(field);
+            for (int row = 0; row < values.length; row++) {
+                if (block.isFilled(field, row)) {
+                    result.add(values[row]);
+                }
+            }
+            return true;
+        });
+        return result.build();
+    }
+
+    /**
+     * Scrolls through the result and collects the values of the given numeric field.
+     * <p>
+     * Entities without a value for the given field are skipped. The values are collected via
+     * {@link #iterateColumns(ResultHandler)}, therefore no boxing takes place. Note however, that the whole result
+     * is scrolled and kept in memory before the stream is returned. Use {@link #iterateColumns(ResultHandler)}
+     * directly to process huge results block by block.
+     *
+     * @param field the numeric field to read
+     * @return a stream of all values of the given field
+     */
+    public DoubleStream streamDoubles(String field) {
+        DoubleStream.Builder result = DoubleStream.builder();
+        iterateColumns(resolveColumns(field), block -> {
+            double[] values = block.getDoubles(field);
+            for (int row = 0; row < values.length; row++) {
+                if (block.isFilled(field, row)) {
+                    result.add(values[row]);
+                }
+            }
+            return true;
+        });
+        return result.build();
+    }
+
+    private void scroll(EntityDescriptor entityDescriptor,
+                        @Nullable List<Property> docValueFields,
+                        ResultHandler<SearchHit> handler) {
         try {
             if (forceFail) {
                 return;
             }
-            EntityDescriptor entityDescriptor = indexAccess.getDescriptor(clazz);
-            SearchResponse searchResponse = createScroll(entityDescriptor);
+            SearchResponse searchResponse = createScroll(entityDescriptor, docValueFields);
             try {
                 executeScroll(searchResponse, handler, entityDescriptor);
             } finally {
@@ -1430,7 +1791,7 @@ public class Query<E extends Entity> {
     }
 
     private void executeScroll(SearchResponse initialSearchResponse,
-                               ResultHandler<? super E> handler,
+                               ResultHandler<SearchHit> handler,
                                EntityDescriptor entityDescriptor) {
         SearchResponse searchResponse = initialSearchResponse;
         TaskContext ctx = TaskContext.get();
@@ -1442,7 +1803,7 @@ public class Query<E extends Entity> {
             lastScroll = performScrollMonitoring(lastScroll);
 
             for (SearchHit hit : searchResponse.getHits()) {
-                if (!processHit(handler, entityDescriptor, ctx, rateLimit, lim, hit)) {
+                if (!processHit(handler, ctx, rateLimit, lim, hit)) {
                     return;
                 }
             }
@@ -1453,22 +1814,14 @@ public class Query<E extends Entity> {
         }
     }
 
-    private boolean processHit(ResultHandler<? super E> handler,
-                               EntityDescriptor entityDescriptor,
+    private boolean processHit(ResultHandler<SearchHit> handler,
                                TaskContext ctx,
                                RateLimit rateLimit,
                                Limit lim,
                                SearchHit hit) {
         try {
-            E entity = clazz.newInstance();
-            entity.setId(hit.getId());
-            entity.initSourceTracing();
-            entity.setVersion(hit.getVersion());
-            entity.setMatchedNamedQueries(hit.getMatchedQueries());
-            entityDescriptor.readSource(entity, hit.getSourceAsMap());
-
             if (lim.nextRow()) {
-                if (!handler.handleRow(entity)) {
+                if (!handler.handleRow(hit)) {
                     return false;
                 }
                 if (!lim.shouldContinue()) {
@@ -1533,8 +1886,8 @@ public class Query<E extends Entity> {
         return searchResponse;
     }
 
-    private SearchResponse createScroll(EntityDescriptor entityDescriptor) {
-        SearchRequestBuilder srb = buildSearch();
+    private SearchResponse createScroll(EntityDescriptor entityDescriptor, @Nullable List<Property> docValueFields) {
+        SearchRequestBuilder srb = buildSearch(docValueFields);
 
         if (orderBys.isEmpty()) {
             // If no custom ordering is needed we sort by _doc which brings performance benefits
@@ -1544,7 +1897,12 @@ public class Query<E extends Entity> {
 
         // If a routing is present, we will only hit one shard. Therefore we fetch up to 50 documents.
         // Otherwise we limit to 10 documents per shard...
-        srb.setSize(routing != null ? MAX_SCROLL_RESULTS_FOR_SINGLE_SHARD : MAX_SCROLL_RESULTS_PER_SHARD);
+        if (docValueFields != null) {
+            // As no _source is fetched, we can afford to fetch a whole block at once...
+            srb.setSize(COLUMN_BLOCK_SIZE);
+        } else {
+            srb.setSize(routing != null ? MAX_SCROLL_RESULTS_FOR_SINGLE_SHARD : MAX_SCROLL_RESULTS_PER_SHARD);
+        }
         srb.setScroll(org.elasticsearch.common.unit.TimeValue.timeValueSeconds(scrollTTL));
         if (IndexAccess.LOG.isFINE()) {
             IndexAccess.LOG.FINE("ITERATE: %s.%s: %s",
@@ -1572,6 +1930,67 @@ public class Query<E extends Entity> {
         });
     }
 
+    /**
+     * Applies the given <tt>modifier</tt> to each item in the result and writes the modified items back.
+     * <p>
+     * In contrast to calling {@link IndexAccess#update(Entity)} within {@link #iterateAll(Consumer)}, the items are
+     * written by version checked bulk requests, which are executed in parallel to the scroll query (see
+     * <tt>index.massUpdate</tt> in the config). Items which have been modified concurrently are re-fetched and the
+     * modifier is applied again, so that the modifier might be invoked several times for the same item. Items which
+     * have been deleted in the meantime or which remain unchanged are skipped.
+     * <p>
+     * Just like for {@link IndexAccess#update(Entity)}, the save checks of each written item are executed before it
+     * is written and its save handlers (including the updates performed by foreign keys) afterwards.
+     *
+     * @param modifier the callback which modifies each item
+     * @return the number of items which have been written
+     */
+    public long updateEach(Callback<E> modifier) {
+        return new MassUpdate<>(this, modifier).execute();
+    }
+
+    /**
+     * Creates a server side update of all items in the result.
+     * <p>
+     * In contrast to {@link #updateEach(Callback)}, the items never leave the cluster, as the field assignments
+     * collected by the returned update are executed by ElasticSearch as <tt>update-by-query</tt>. Note that a
+     * {@link #limit(int)} is respected, but ordering and aggregations are ignored.
+     *
+     * @return a new scripted update which has to be executed via {@link ScriptedUpdate#execute()}
+     */
+    public ScriptedUpdate<E> updateByScript() {
+        EntityDescriptor ed = indexAccess.getDescriptor(clazz);
+        String indexName = index != null ? index : indexAccess.getIndexName(ed.getIndex());
+        UpdateByQueryRequestBuilder request = UpdateByQueryAction.INSTANCE.newRequestBuilder(indexAccess.getClient());
+        request.source(indexName);
+        request.source().setTypes(ed.getType());
+        applyRouting(ed, request.source()::setRouting);
+        QueryBuilder qb = buildQuery();
+        if (forceFail) {
+            request.filter(QueryBuilders.boolQuery().mustNot(QueryBuilders.matchAllQuery()));
+        } else if (qb != null) {
+            request.filter(qb);
+        }
+        if (limit != null && limit > 0) {
+            request.size(limit);
+        }
+        return new ScriptedUpdate<>(indexAccess, ed, indexName, request);
+    }
+
+    /**
+     * Sets the given fields of all items in the result to the given values, without loading any item.
+     * <p>
+     * This is a boilerplate method for {@link #updateByScript()} for simple field assignments.
+     *
+     * @param assignments the new values per field name
+     * @return the number of updated items
+     */
+    public long updateByScript(Map<String, Object> assignments) {
+        ScriptedUpdate<E> update = updateByScript();
+        assignments.forEach(update::set);
+        return update.execute();
+    }
+
     /**
      * Executes the result and calls the given <tt>customer</tt> for each item in the result.
      * <p>
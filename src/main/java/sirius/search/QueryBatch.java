@@ -0,0 +1,202 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.HandledException;
+import sirius.kernel.health.Microtiming;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Collects several independent queries and executes them using a single multi-search request.
+ * <p>
+ * Pages which show the results of many independent queries (e.g. a dashboard showing several counts) would otherwise
+ * require a round trip to the cluster per query. As the queries of a batch are executed in parallel by
+ * ElasticSearch, the latency is roughly the one of the slowest query instead of the sum of all queries.
+ * <p>
+ * Each query added to the batch yields a {@link Result} which can be accessed once {@link #execute()} was called.
+ * A failing query doesn't affect the other queries of the batch - only accessing its result will throw an
+ * exception. Use {@link IndexAccess#batch()} to create an instance.
+ */
+public class QueryBatch {
+
+    private final IndexAccess index;
+    private final List<Result<?>> results = new ArrayList<>();
+    private boolean executed;
+
+    /**
+     * Represents the result of a query within the batch.
+     *
+     * @param <T> the type of the result
+     */
+    public static class Result<T> {
+
+        private final String description;
+        private final SearchRequestBuilder request;
+        private final Function<SearchResponse, T> transformer;
+        private boolean available;
+        private T value;
+        private HandledException failure;
+
+        private Result(String description, SearchRequestBuilder request, Function<SearchResponse, T> transformer) {
+            this.description = description;
+            this.request = request;
+            this.transformer = transformer;
+        }
+
+        private void complete(T value) {
+            this.value = value;
+            this.available = true;
+        }
+
+        private void completeWith(SearchResponse response) {
+            complete(transformer.apply(response));
+        }
+
+        private void fail(HandledException failure) {
+            this.failure = failure;
+            this.available = true;
+        }
+
+        /**
+         * Returns the result of the query.
+         *
+         * @return the result of the query
+         * @throws HandledException      if the query failed
+         * @throws IllegalStateException if the batch wasn't executed yet
+         */
+        public T get() {
+            if (!available) {
+                throw new IllegalStateException("The result is only available once the batch has been executed.");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Creates a new batch which executes its queries against the given index.
+     *
+     * @param index the IndexAccess instance
+     */
+    protected QueryBatch(IndexAccess index) {
+        this.index = index;
+    }
+
+    /**
+     * Adds the given query to the batch, so that the number of matching entities is determined.
+     *
+     * @param query the query to execute
+     * @return the result which will contain the same value as {@link Query#count()} once the batch was executed
+     */
+    public Result<Long> count(Query<?> query) {
+        if (query.isForceFail()) {
+            return completed(0L);
+        }
+        return add(query, query.buildCountSearch(), response -> response.getHits().getTotalHits());
+    }
+
+    /**
+     * Adds the given query to the batch, so that all matching entities along with their facets are fetched.
+     *
+     * @param query the query to execute
+     * @param <E>   the type of entities being queried
+     * @return the result which will contain the same value as {@link Query#queryResultList()} once the batch was
+     * executed
+     */
+    public <E extends Entity> Result<ResultList<E>> queryResultList(Query<E> query) {
+        if (query.isForceFail()) {
+            return completed(new ResultList<>(new ArrayList<>(), null));
+        }
+        return add(query, query.buildResultListSearch(), query::createResultList);
+    }
+
+    private <T> Result<T> completed(T value) {
+        Result<T> result = new Result<>(null, null, null);
+        result.complete(value);
+        return result;
+    }
+
+    private <T> Result<T> add(Query<?> query, SearchRequestBuilder request, Function<SearchResponse, T> transformer) {
+        if (executed) {
+            throw new IllegalStateException("Cannot add a query to a batch which has already been executed.");
+        }
+        Result<T> result = new Result<>(query.toString(), request, transformer);
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * Executes all queries of the batch using a single multi-search request.
+     * <p>
+     * Once this method returns, the results of all queries are available. Each batch can only be executed once.
+     */
+    public void execute() {
+        if (executed) {
+            throw new IllegalStateException("The batch has already been executed.");
+        }
+        executed = true;
+        if (results.isEmpty()) {
+            return;
+        }
+
+        Watch w = Watch.start();
+        try {
+            MultiSearchRequestBuilder msrb = index.getClient().prepareMultiSearch();
+            results.forEach(result -> msrb.add(result.request));
+            MultiSearchResponse response = msrb.execute().actionGet();
+            completeResults(response.getResponses());
+        } catch (Exception e) {
+            HandledException failure = Exceptions.handle()
+                                                 .to(IndexAccess.LOG)
+                                                 .error(e)
+                                                 .withSystemErrorMessage("Failed to execute a batch: %s (%s)")
+                                                 .handle();
+            results.forEach(result -> result.fail(failure));
+        }
+
+        index.queryDuration.addValue(w.elapsedMillis());
+        if (IndexAccess.LOG.isFINE()) {
+            IndexAccess.LOG.FINE("MULTI-SEARCH: %s queries - %d ms", results.size(), w.elapsedMillis());
+        }
+        if (Microtiming.isEnabled()) {
+            w.submitMicroTiming("ES", "MULTI-SEARCH: " + results.size() + " queries");
+        }
+    }
+
+    private void completeResults(MultiSearchResponse.Item[] items) {
+        for (int i = 0; i < items.length; i++) {
+            Result<?> result = results.get(i);
+            MultiSearchResponse.Item item = items[i];
+            try {
+                if (item.isFailure()) {
+                    throw item.getFailure();
+                }
+                result.completeWith(item.getResponse());
+            } catch (Exception e) {
+                result.fail(Exceptions.handle()
+                                      .to(IndexAccess.LOG)
+                                      .error(e)
+                                      .withSystemErrorMessage("Failed to execute %s as part of a batch: %s (%s)",
+                                                              result.description)
+                                      .handle());
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import sirius.search.annotations.Indexed;
+
+/**
+ * Used by the {@link ReIndexTask} to record which slices of which type have been copied completely.
+ * <p>
+ * If a re-index is interrupted and started again with the same index prefix, all completed slices are skipped.
+ */
+@Indexed(index = "core")
+public class ReIndexCheckpoint extends Entity {
+
+    /**
+     * Contains the index prefix which is the target of the re-index.
+     */
+    public static final String TARGET_PREFIX = "targetPrefix";
+    private String targetPrefix;
+
+    /**
+     * Contains the name of the entity type which is copied.
+     */
+    public static final String ENTITY_TYPE = "entityType";
+    private String entityType;
+
+    /**
+     * Contains the number of the slice which is copied.
+     */
+    public static final String SLICE = "slice";
+    private int slice;
+
+    /**
+     * Contains the total number of slices used for the type.
+     */
+    public static final String SLICES = "slices";
+    private int slices;
+
+    /**
+     * Contains the number of documents which have been copied for this slice.
+     */
+    public static final String NUM_DOCS = "numDocs";
+    private long numDocs;
+
+    /**
+     * Determines if the slice has been copied completely.
+     */
+    public static final String COMPLETED = "completed";
+    private boolean completed;
+
+    /**
+     * Computes the id of the checkpoint for the given slice.
+     *
+     * @param targetPrefix the index prefix which is the target of the re-index
+     * @param entityType   the name of the entity type
+     * @param slice        the number of the slice
+     * @param slices       the total number of slices
+     * @return the id to use for the checkpoint
+     */
+    public static String computeId(String targetPrefix, String entityType, int slice, int slices) {
+        return targetPrefix + entityType + "-" + slice + "-of-" + slices;
+    }
+
+    public String getTargetPrefix() {
+        return targetPrefix;
+    }
+
+    public void setTargetPrefix(String targetPrefix) {
+        this.targetPrefix = targetPrefix;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public int getSlice() {
+        return slice;
+    }
+
+    public void setSlice(int slice) {
+        this.slice = slice;
+    }
+
+    public int getSlices() {
+        return slices;
+    }
+
+    public void setSlices(int slices) {
+        this.slices = slices;
+    }
+
+    public long getNumDocs() {
+        return numDocs;
+    }
+
+    public void setNumDocs(long numDocs) {
+        this.numDocs = numDocs;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+}
@@ -13,113 +13,381 @@ import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
+import sirius.kernel.Sirius;
 import sirius.kernel.async.TaskContext;
+import sirius.kernel.async.Tasks;
+import sirius.kernel.commons.RateLimit;
+import sirius.kernel.commons.Wait;
+import sirius.kernel.di.std.ConfigValue;
 import sirius.kernel.di.std.Part;
 import sirius.kernel.health.Exceptions;
+import sirius.kernel.nls.NLS;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Used to re-index all document from one index to another.
  * <p>
  * The main reason for this would be mapping changes.
+ * <p>
+ * Each type is split into several slices (see <tt>index.reindex.slices</tt>), which are copied in parallel using
+ * sliced scrolls. Each completed slice is recorded as {@link ReIndexCheckpoint}, so that a re-index which is started
+ * again using the same prefix skips all slices which have already been copied.
+ * <p>
+ * While copying, the target indices are tuned for a bulk load (see {@link BulkLoadMode}).
+ * <p>
+ * Documents are copied using their current version as external version. Therefore a copy never replaces a newer
+ * version of a document, which has e.g. been written by the dual writes of an {@link IndexMigration}.
  */
 class ReIndexTask implements Runnable {
 
+    /**
+     * Contains the name of the executor which runs the slice workers.
+     */
+    private static final String EXECUTOR_REINDEX = "index-reindex";
+
     private static final long FIVE_MINUTES = 5 * 60L;
     private Schema schema;
     private final String newPrefix;
-    private int counter;
-    private BulkRequestBuilder bulk;
+    private final long bulkSizeInBytes;
+    private final Queue<ReIndexCheckpoint> pendingSlices = new ConcurrentLinkedQueue<>();
+    private final AtomicLong copiedDocs = new AtomicLong();
+    private final AtomicInteger failedSlices = new AtomicInteger();
+    private long expectedDocs;
+    private long startedAt;
+    private TaskContext taskContext;
+    private boolean completed;
 
     @Part
     private static IndexAccess index;
 
+    @Part
+    private static Tasks tasks;
+
+    @ConfigValue("index.reindex.slices")
+    private static int slices;
+
+    @ConfigValue("index.reindex.parallelism")
+    private static int parallelism;
+
+    @ConfigValue("index.reindex.scrollSize")
+    private static int scrollSize;
+
+    @ConfigValue("index.reindex.maxDocsPerSecond")
+    private static int maxDocsPerSecond;
+
     ReIndexTask(Schema schema, String newPrefix) {
         this.schema = schema;
         this.newPrefix = newPrefix;
+        this.bulkSizeInBytes = Sirius.getSettings().getConfig().getBytes("index.reindex.bulkSize");
     }
 
     @Override
     public void run() {
+        taskContext = TaskContext.get();
         IndexAccess.LOG.INFO("Creating Mappings: " + newPrefix);
         for (String result : schema.createMappings(newPrefix)) {
             IndexAccess.LOG.INFO(result);
         }
         IndexAccess.LOG.INFO("Re-Indexing to " + newPrefix);
-        executeAndReCreateBulk();
-        try {
-            for (EntityDescriptor ed : schema.descriptorTable.values()) {
-                IndexAccess.LOG.INFO("Re-Indexing: " + newPrefix + ed.getIndex() + "." + ed.getType());
-                reIndexEntitiesOfDescriptor(ed);
+        for (EntityDescriptor ed : schema.descriptorTable.values()) {
+            planSlices(ed);
+        }
+        if (pendingSlices.isEmpty()) {
+            IndexAccess.LOG.INFO("Re-Index is COMPLETED! All slices have already been copied to " + newPrefix);
+            completed = true;
+            return;
+        }
+
+        startedAt = System.currentTimeMillis();
+        Set<String> targetIndices = new TreeSet<>();
+        for (EntityDescriptor ed : schema.descriptorTable.values()) {
+            targetIndices.add(newPrefix + ed.getIndex());
+        }
+        index.bulkLoadIndices(targetIndices, false, this::copySlices);
+
+        if (failedSlices.get() > 0 || !pendingSlices.isEmpty() || !taskContext.isActive()) {
+            IndexAccess.LOG.WARN("Re-Index to %s is INCOMPLETE (%s slices failed, %s slices not copied). "
+                                 + "Restart it with the same prefix to continue...",
+                                 newPrefix,
+                                 failedSlices.get(),
+                                 pendingSlices.size());
+        } else {
+            completed = true;
+            IndexAccess.LOG.INFO("Re-Index is COMPLETED! You may now start breathing again... (%s documents in %s)",
+                                 copiedDocs.get(),
+                                 NLS.convertDuration(System.currentTimeMillis() - startedAt, true, false));
+        }
+    }
+
+    /**
+     * Determines if all slices of all types have been copied successfully.
+     *
+     * @return <tt>true</tt> if the re-index has been completed, <tt>false</tt> if it failed or was interrupted
+     */
+    protected boolean isCompleted() {
+        return completed;
+    }
+
+    /*
+     * Schedules all slices of the given type which have not been completed by a previous run.
+     */
+    private void planSlices(EntityDescriptor ed) {
+        int numSlices = Math.max(1, slices);
+        int openSlices = 0;
+        for (int slice = 0; slice < numSlices; slice++) {
+            String id = ReIndexCheckpoint.computeId(newPrefix, ed.getType(), slice, numSlices);
+            ReIndexCheckpoint checkpoint = index.find(ReIndexCheckpoint.class, id);
+            if (checkpoint == null) {
+                checkpoint = new ReIndexCheckpoint();
+                checkpoint.setId(id);
+                checkpoint.setTargetPrefix(newPrefix);
+                checkpoint.setEntityType(ed.getType());
+                checkpoint.setSlice(slice);
+                checkpoint.setSlices(numSlices);
             }
-        } finally {
-            executeAndReCreateBulk();
-            IndexAccess.LOG.INFO("Re-Index is COMPLETED! You may now start breathing again...");
+            if (checkpoint.isCompleted()) {
+                IndexAccess.LOG.INFO("Skipping slice %s of %s of %s as it has already been copied",
+                                     slice + 1,
+                                     numSlices,
+                                     ed.getType());
+            } else {
+                pendingSlices.add(checkpoint);
+                openSlices++;
+            }
+        }
+        if (openSlices > 0) {
+            expectedDocs += countDocs(ed) * openSlices / numSlices;
         }
     }
 
-    private void reIndexEntitiesOfDescriptor(EntityDescriptor ed) {
+    private long countDocs(EntityDescriptor ed) {
         try {
-            SearchRequestBuilder srb =
-                    index.getClient().prepareSearch(index.getIndexName(ed.getIndex())).setTypes(ed.getType());
-            srb.addSort("_doc", SortOrder.ASC);
-
-            // Limit to 10 per shard
-            srb.setSize(10);
-            srb.setScroll(org.elasticsearch.common.unit.TimeValue.timeValueSeconds(FIVE_MINUTES));
-            SearchResponse searchResponse = srb.execute().actionGet();
-            while (TaskContext.get().isActive()) {
-                searchResponse = reindexBlock(ed, searchResponse.getScrollId());
-                //Break condition: No hits are returned
-                if (searchResponse.getHits().getHits().length == 0) {
-                    return;
+            return index.getClient()
+                        .prepareSearch(index.getIndexName(ed.getIndex()))
+                        .setTypes(ed.getType())
+                        .setSize(0)
+                        .execute()
+                        .actionGet()
+                        .getHits()
+                        .getTotalHits();
+        } catch (Exception e) {
+            Exceptions.handle(IndexAccess.LOG, e);
+            return 0;
+        }
+    }
+
+    private void copySlices() {
+        int numWorkers = Math.max(1, Math.min(parallelism, pendingSlices.size()));
+        CountDownLatch workers = new CountDownLatch(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            tasks.executor(EXECUTOR_REINDEX).fork(() -> {
+                try {
+                    processSlices();
+                } finally {
+                    workers.countDown();
                 }
+            });
+        }
+        awaitWorkers(workers);
+    }
+
+    private void awaitWorkers(CountDownLatch workers) {
+        try {
+            workers.await();
+        } catch (InterruptedException e) {
+            Exceptions.ignore(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void processSlices() {
+        while (taskContext.isActive()) {
+            ReIndexCheckpoint checkpoint = pendingSlices.poll();
+            if (checkpoint == null) {
+                return;
+            }
+            try {
+                if (!reIndexSlice(checkpoint)) {
+                    // The task has been cancelled - keep the slice so that it is reported as not copied...
+                    pendingSlices.add(checkpoint);
+                }
+            } catch (Exception e) {
+                failedSlices.incrementAndGet();
+                Exceptions.handle()
+                          .to(IndexAccess.LOG)
+                          .error(e)
+                          .withSystemErrorMessage("Failed to re-index slice %s of %s of %s: %s (%s)",
+                                                  checkpoint.getSlice() + 1,
+                                                  checkpoint.getSlices(),
+                                                  checkpoint.getEntityType())
+                          .handle();
             }
-        } catch (Exception t) {
-            throw Exceptions.handle(IndexAccess.LOG, t);
         }
     }
 
-    private SearchResponse reindexBlock(EntityDescriptor ed, String scollId) {
-        SearchResponse searchResponse = index.getClient()
-                                             .prepareSearchScroll(scollId)
-                                             .setScroll(org.elasticsearch.common.unit.TimeValue.timeValueSeconds(
-                                                     FIVE_MINUTES))
-                                             .execute()
-                                             .actionGet();
-        for (SearchHit hit : searchResponse.getHits()) {
-            bulk.add(index.getClient()
-                          .prepareIndex(newPrefix + ed.getIndex(), ed.getType())
-                          .setId(hit.getId())
-                          .setSource(hit.getSourceAsString(), XContentType.JSON)
-                          .request());
-            counter++;
-            if (counter > 1000) {
-                executeAndReCreateBulk();
+    /*
+     * Copies the given slice and records it as completed. Returns false if the task was cancelled before the slice
+     * has been copied completely.
+     */
+    private boolean reIndexSlice(ReIndexCheckpoint checkpoint) {
+        EntityDescriptor ed = schema.getDescriptor(schema.getType(checkpoint.getEntityType()));
+        IndexAccess.LOG.INFO("Re-Indexing: %s%s.%s (Slice %s of %s)",
+                             newPrefix,
+                             ed.getIndex(),
+                             ed.getType(),
+                             checkpoint.getSlice() + 1,
+                             checkpoint.getSlices());
+        SearchRequestBuilder srb =
+                index.getClient().prepareSearch(index.getIndexName(ed.getIndex())).setTypes(ed.getType());
+        srb.addSort("_doc", SortOrder.ASC);
+        if (checkpoint.getSlices() > 1) {
+            srb.slice(new SliceBuilder(checkpoint.getSlice(), checkpoint.getSlices()));
+        }
+        srb.setSize(scrollSize);
+        srb.setVersion(true);
+        srb.setScroll(TimeValue.timeValueSeconds(FIVE_MINUTES));
+
+        SearchResponse searchResponse = srb.execute().actionGet();
+        SliceCopy copy = new SliceCopy(ed);
+        try {
+            while (searchResponse.getHits().getHits().length > 0) {
+                if (!taskContext.isActive()) {
+                    return false;
+                }
+                copy.copyHits(searchResponse);
+                searchResponse = index.getClient()
+                                      .prepareSearchScroll(searchResponse.getScrollId())
+                                      .setScroll(TimeValue.timeValueSeconds(FIVE_MINUTES))
+                                      .execute()
+                                      .actionGet();
             }
+            copy.flush();
+        } finally {
+            clearScroll(searchResponse);
+        }
+
+        if (copy.failures > 0) {
+            throw new IllegalStateException(copy.failures + " documents could not be copied");
+        }
+        checkpoint.setNumDocs(copy.numDocs);
+        checkpoint.setCompleted(true);
+        index.update(checkpoint);
+        return true;
+    }
+
+    private void clearScroll(SearchResponse searchResponse) {
+        try {
+            index.getClient().prepareClearScroll().addScrollId(searchResponse.getScrollId()).execute().actionGet();
+        } catch (Exception e) {
+            Exceptions.ignore(e);
         }
-        return searchResponse;
     }
 
-    private void executeAndReCreateBulk() {
-        if (counter > 0) {
-            IndexAccess.LOG.INFO("Executing bulk...");
+    /*
+     * Copies the hits of a single slice into bulk requests, which are executed once they reach the configured size.
+     */
+    private class SliceCopy {
+        private final EntityDescriptor ed;
+        private final RateLimit stateLimit = RateLimit.timeInterval(5, TimeUnit.SECONDS);
+        private BulkRequestBuilder bulk;
+        private long numDocs;
+        private int failures;
+
+        SliceCopy(EntityDescriptor ed) {
+            this.ed = ed;
+            this.bulk = index.getClient().prepareBulk();
+        }
+
+        void copyHits(SearchResponse searchResponse) {
+            for (SearchHit hit : searchResponse.getHits()) {
+                bulk.add(index.getClient()
+                              .prepareIndex(newPrefix + ed.getIndex(), ed.getType())
+                              .setId(hit.getId())
+                              .setRouting(hit.field("_routing") != null ?
+                                          String.valueOf(hit.field("_routing").getValue()) :
+                                          null)
+                              .setSource(hit.getSourceRef(), XContentType.JSON)
+                              .setVersion(hit.getVersion())
+                              .setVersionType(VersionType.EXTERNAL)
+                              .request());
+                if (bulk.request().estimatedSizeInBytes() >= bulkSizeInBytes) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() {
+            int numberOfActions = bulk.numberOfActions();
+            if (numberOfActions == 0) {
+                return;
+            }
+
             BulkResponse res = bulk.execute().actionGet();
             processFailures(res);
+            bulk = index.getClient().prepareBulk();
+            numDocs += numberOfActions;
+            copiedDocs.addAndGet(numberOfActions);
+            throttle();
+            if (stateLimit.check()) {
+                reportProgress();
+            }
         }
-        bulk = index.getClient().prepareBulk();
-        counter = 0;
-    }
 
-    private void processFailures(BulkResponse res) {
-        if (res.hasFailures()) {
-            for (BulkItemResponse itemRes : res.getItems()) {
-                if (itemRes.isFailed()) {
-                    IndexAccess.LOG.SEVERE("Re-Indexing failed: " + itemRes.getFailureMessage());
+        private void processFailures(BulkResponse res) {
+            if (res.hasFailures()) {
+                for (BulkItemResponse itemRes : res.getItems()) {
+                    // A conflict means, that the document is already present in the same or a newer version,
+                    // e.g. as it was copied by a previous run or written by a dual write (see IndexMigration)
+                    if (itemRes.isFailed() && itemRes.getFailure().getStatus() != RestStatus.CONFLICT) {
+                        failures++;
+                        IndexAccess.LOG.SEVERE("Re-Indexing failed: " + itemRes.getFailureMessage());
+                    }
                 }
             }
         }
     }
+
+    /*
+     * Blocks the calling worker as long as all workers together are faster than index.reindex.maxDocsPerSecond.
+     */
+    private void throttle() {
+        if (maxDocsPerSecond <= 0) {
+            return;
+        }
+        long expectedMillis = copiedDocs.get() * 1000 / maxDocsPerSecond;
+        long elapsedMillis = System.currentTimeMillis() - startedAt;
+        if (expectedMillis > elapsedMillis) {
+            Wait.millis((int) Math.min(expectedMillis - elapsedMillis, Integer.MAX_VALUE));
+        }
+    }
+
+    private void reportProgress() {
+        long docs = copiedDocs.get();
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startedAt);
+        long docsPerSecond = docs * 1000 / elapsedMillis;
+        String eta = docsPerSecond > 0 && expectedDocs > docs ?
+                     NLS.convertDuration((expectedDocs - docs) * 1000 / docsPerSecond, true, false) :
+                     "-";
+        taskContext.setState("Re-Indexing to %s: %s of ~%s documents (%s docs/s, ETA: %s)",
+                             newPrefix,
+                             docs,
+                             expectedDocs,
+                             docsPerSecond,
+                             eta);
+    }
 }
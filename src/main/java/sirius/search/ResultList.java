@@ -10,31 +10,43 @@ package sirius.search;
 
 import com.google.common.collect.Lists;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.bucket.range.Range;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
-import sirius.kernel.commons.Monoflop;
+import sirius.kernel.health.Exceptions;
 import sirius.web.controller.Facet;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Function;
 
 /**
  * Combines the result items of a query along with the collected facet filters and aggregations.
  * <p>
  * Instances of this class are created by {@link sirius.search.Query#queryResultList()} as a result of a database
  * query.
+ * <p>
+ * The underlying {@link SearchResponse} isn't kept around. The total number of hits, the facets and the
+ * aggregations are extracted from it upon creation. The hits themselves are only transformed into result items
+ * once these are accessed and released right afterwards. Therefore callers which only need the number of hits or
+ * the facets don't pay for creating the items.
  *
  * @param <T> the type of entities in the result
  */
 public class ResultList<T> implements Iterable<T> {
 
     private final List<Facet> termFacets;
-    private List<T> results = Lists.newArrayList();
-    private SearchResponse response;
-    private Monoflop facetsProcessed = Monoflop.create();
+    private List<T> results;
+    private SearchHit[] pendingHits;
+    private Function<SearchHit, T> transformer;
+    private final long totalHits;
+    private final Map<String, Aggregation> aggregations;
 
     /**
      * Creates a new result list
@@ -43,13 +55,79 @@ public class ResultList<T> implements Iterable<T> {
      * @param response   underlying search response building the result
      */
     protected ResultList(List<Facet> termFacets, SearchResponse response) {
+        this(termFacets, response, null);
+    }
+
+    /**
+     * Creates a new result list which transforms the hits of the given response on first access.
+     *
+     * @param termFacets  list of facets created by the query
+     * @param response    underlying search response building the result
+     * @param transformer the function used to transform each hit into a result item or <tt>null</tt> to create an
+     *                    empty list which is filled by the caller
+     */
+    protected ResultList(List<Facet> termFacets, SearchResponse response, Function<SearchHit, T> transformer) {
         this.termFacets = termFacets;
-        this.response = response;
+        if (response == null || response.getHits() == null) {
+            this.totalHits = 0;
+        } else {
+            this.totalHits = response.getHits().getTotalHits();
+        }
+        this.aggregations = extractAggregations(response == null ? null : response.getAggregations());
+        if (transformer != null && response != null && response.getHits() != null) {
+            this.pendingHits = response.getHits().getHits();
+            this.transformer = transformer;
+        } else {
+            this.results = Lists.newArrayList();
+        }
+    }
+
+    /*
+     * Fills the facets using their aggregations and keeps all aggregations (including the ones of the facets) around
+     */
+    private Map<String, Aggregation> extractAggregations(Aggregations rawAggregations) {
+        if (rawAggregations == null) {
+            return Collections.emptyMap();
+        }
+        for (Facet facet : termFacets) {
+            fillFacet(facet, rawAggregations);
+        }
+        return rawAggregations.asMap();
+    }
+
+    /*
+     * Transforms all pending hits into result items
+     */
+    private List<T> materialize() {
+        if (results == null) {
+            List<T> items = Lists.newArrayListWithCapacity(pendingHits.length);
+            for (SearchHit hit : pendingHits) {
+                items.add(transform(hit));
+            }
+            results = items;
+            pendingHits = null;
+            transformer = null;
+        }
+        return results;
+    }
+
+    private T transform(SearchHit hit) {
+        try {
+            return transformer.apply(hit);
+        } catch (Exception e) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to transform the hit '%s' (%s) into a result: %s (%s)",
+                                                    hit.getId(),
+                                                    hit.getType())
+                            .handle();
+        }
     }
 
     @Override
     public Iterator<T> iterator() {
-        return results.iterator();
+        return materialize().iterator();
     }
 
     /**
@@ -58,7 +136,7 @@ public class ResultList<T> implements Iterable<T> {
      * @return the number of entities
      */
     public int size() {
-        return results.size();
+        return results == null ? pendingHits.length : results.size();
     }
 
     /**
@@ -67,7 +145,7 @@ public class ResultList<T> implements Iterable<T> {
      * @return <tt>true</tt> if there are no entities in the result list, <tt>false</tt> otherwise
      */
     public boolean isEmpty() {
-        return results.isEmpty();
+        return size() == 0;
     }
 
     /**
@@ -76,7 +154,7 @@ public class ResultList<T> implements Iterable<T> {
      * @return <tt>true</tt> if there is at least one result item, <tt>false</tt> otherwise
      */
     public boolean isFilled() {
-        return !results.isEmpty();
+        return !isEmpty();
     }
 
     /**
@@ -86,7 +164,7 @@ public class ResultList<T> implements Iterable<T> {
      * the result
      */
     public List<T> getResults() {
-        return results;
+        return materialize();
     }
 
     /**
@@ -95,10 +173,7 @@ public class ResultList<T> implements Iterable<T> {
      * @return the total number of hits
      */
     public long getTotalNumberOfHits() {
-        if (response == null || response.getHits() == null) {
-            return 0;
-        }
-        return response.getHits().getTotalHits();
+        return totalHits;
     }
 
     /**
@@ -107,19 +182,14 @@ public class ResultList<T> implements Iterable<T> {
      * @return the facet filters defined by the query
      */
     public List<Facet> getFacets() {
-        if (facetsProcessed.firstCall() && response != null) {
-            for (Facet facet : termFacets) {
-                fillFacet(facet);
-            }
-        }
         return termFacets;
     }
 
-    private void fillFacet(Facet facet) {
+    private void fillFacet(Facet facet, Aggregations aggregations) {
         if (facet instanceof DateFacet) {
-            fillDateFacet(facet);
+            fillDateFacet(facet, aggregations);
         } else {
-            Terms terms = response.getAggregations().get(facet.getName());
+            Terms terms = aggregations.get(facet.getName());
             for (Terms.Bucket bucket : terms.getBuckets()) {
                 String key = bucket.getKeyAsString();
                 facet.addItem(key, key, (int) bucket.getDocCount());
@@ -127,13 +197,13 @@ public class ResultList<T> implements Iterable<T> {
         }
     }
 
-    private void fillDateFacet(Facet facet) {
+    private void fillDateFacet(Facet facet, Aggregations aggregations) {
         DateFacet dateFacet = (DateFacet) facet;
 
         Map<String, Range.Bucket> items = new LinkedHashMap<>();
         dateFacet.getRanges().forEach(range -> items.put(range.getKey(), null));
 
-        Range range = response.getAggregations().get(facet.getName());
+        Range range = aggregations.get(facet.getName());
 
         range.getBuckets().stream().filter(bucket -> bucket.getDocCount() > 0).forEach(bucket -> {
             DateRange dateRange = dateFacet.getRangeByName(bucket.getKeyAsString());
@@ -153,7 +223,7 @@ public class ResultList<T> implements Iterable<T> {
      *
      * @return a map containing the computed aggregations per field
      */
-    public Map<String, org.elasticsearch.search.aggregations.Aggregation> getAggregations() {
-        return response.getAggregations().asMap();
+    public Map<String, Aggregation> getAggregations() {
+        return aggregations;
     }
 }
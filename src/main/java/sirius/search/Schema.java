@@ -8,12 +8,21 @@
 
 package sirius.search;
 
+import com.google.common.collect.ImmutableMap;
 import com.typesafe.config.ConfigValue;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
 import sirius.kernel.Sirius;
 import sirius.kernel.commons.Explain;
 import sirius.kernel.commons.Strings;
@@ -31,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -60,16 +70,18 @@ public class Schema {
     private boolean temporaryIndexPrefix = false;
 
     /**
-     * Contains a map with an entity descriptor for each entity class
+     * Contains a map with an entity descriptor for each entity class.
+     * <p>
+     * This map is immutable and replaced as a whole by {@link #load()}, so that lookups don't need any locking.
      */
-    protected Map<Class<? extends Entity>, EntityDescriptor> descriptorTable =
-            Collections.synchronizedMap(new HashMap<Class<? extends Entity>, EntityDescriptor>());
+    protected volatile Map<Class<? extends Entity>, EntityDescriptor> descriptorTable = Collections.emptyMap();
 
     /**
-     * Contains a map providing the class for each entity type name
+     * Contains a map providing the class for each entity type name.
+     * <p>
+     * Just like {@link #descriptorTable} this map is immutable and replaced as a whole by {@link #load()}.
      */
-    protected Map<String, Class<? extends Entity>> nameTable =
-            Collections.synchronizedMap(new HashMap<String, Class<? extends Entity>>());
+    protected volatile Map<String, Class<? extends Entity>> nameTable = Collections.emptyMap();
 
     protected Schema(IndexAccess access) {
         this.access = access;
@@ -87,22 +99,24 @@ public class Schema {
     /*
      * Adds a known entity class
      */
-    private <E extends Entity> void addKnownClass(Class<E> entityType) {
-        EntityDescriptor result = descriptorTable.get(entityType);
+    private <E extends Entity> void addKnownClass(Class<E> entityType,
+                                                  Map<Class<? extends Entity>, EntityDescriptor> descriptors,
+                                                  Map<String, Class<? extends Entity>> names) {
+        EntityDescriptor result = descriptors.get(entityType);
         if (result == null) {
             result = new EntityDescriptor(entityType);
-            descriptorTable.put(entityType, result);
-            nameTable.put(result.getIndex() + "-" + result.getType(), entityType);
+            descriptors.put(entityType, result);
+            names.put(result.getIndex() + "-" + result.getType(), entityType);
         }
     }
 
     /*
      * Links the schema and builds up foreign keys, etc.
      */
-    private void linkSchema() {
-        for (EntityDescriptor e : descriptorTable.values()) {
+    private void linkSchema(Map<Class<? extends Entity>, EntityDescriptor> descriptors) {
+        for (EntityDescriptor e : descriptors.values()) {
             for (ForeignKey fk : e.getForeignKeys()) {
-                EntityDescriptor other = getDescriptor(fk.getReferencedClass());
+                EntityDescriptor other = descriptors.get(fk.getReferencedClass());
                 if (other == null) {
                     IndexAccess.LOG.WARN("Cannot reference non-entity class %s from %s",
                                          fk.getReferencedClass().getSimpleName(),
@@ -186,18 +200,21 @@ public class Schema {
     @Explain("The content builder of the mapping doesn't have to be closed here")
     protected List<String> createMappings(String indexPrefix) {
         List<String> changes = new ArrayList<>();
-        for (EntityDescriptor ed : descriptorTable.values()) {
-            createIndex(indexPrefix, ed, changes);
-        }
+        MetaData metaData = fetchMetaData(indexPrefix, changes);
+        createMissingIndices(indexPrefix, metaData, changes);
 
         for (Map.Entry<Class<? extends Entity>, EntityDescriptor> e : descriptorTable.entrySet()) {
             try {
+                String index = indexPrefix + e.getValue().getIndex();
+                if (!isMappingChanged(metaData, index, e.getValue())) {
+                    continue;
+                }
                 if (IndexAccess.LOG.isFINE()) {
                     IndexAccess.LOG.FINE("MAPPING OF %s : %s",
                                          e.getValue().getType(),
                                          e.getValue().createMapping().prettyPrint().string());
                 }
-                access.addMapping(indexPrefix + e.getValue().getIndex(), e.getKey());
+                access.addMapping(index, e.getKey());
                 changes.add("Created mapping for " + e.getValue().getType() + " in " + e.getValue().getIndex());
             } catch (HandledException ex) {
                 changes.add(ex.getMessage());
@@ -209,24 +226,90 @@ public class Schema {
         return changes;
     }
 
-    private void createIndex(String indexPrefix, EntityDescriptor descriptor, List<String> changes) {
-        String index = indexPrefix + descriptor.getIndex();
+    /*
+     * Fetches the metadata (settings and mappings) of all known indices using a single cluster state request.
+     * Returns null if the cluster state cannot be obtained, in which case all indices are checked and all
+     * mappings are put as before.
+     */
+    @Nullable
+    private MetaData fetchMetaData(String indexPrefix, List<String> changes) {
+        try {
+            String[] indices = descriptorTable.values()
+                                              .stream()
+                                              .map(ed -> indexPrefix + ed.getIndex())
+                                              .distinct()
+                                              .toArray(String[]::new);
+            ClusterStateResponse res = access.getClient()
+                                             .admin()
+                                             .cluster()
+                                             .prepareState()
+                                             .clear()
+                                             .setMetaData(true)
+                                             .setIndices(indices)
+                                             .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                                             .execute()
+                                             .get(10, TimeUnit.SECONDS);
+            return res.getState().getMetaData();
+        } catch (Exception e) {
+            IndexAccess.LOG.WARN(e);
+            changes.add("Cannot fetch the existing mappings: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * Creates all indices which do not exist yet. All create requests are sent at once so that the cluster can
+     * process them in parallel, afterwards we wait for each of them to complete.
+     */
+    private void createMissingIndices(String indexPrefix, @Nullable MetaData metaData, List<String> changes) {
+        Map<String, ActionFuture<CreateIndexResponse>> pendingIndices = new LinkedHashMap<>();
+        for (EntityDescriptor ed : descriptorTable.values()) {
+            String index = indexPrefix + ed.getIndex();
+            if (!pendingIndices.containsKey(index) && !indexExists(metaData, index)) {
+                try {
+                    pendingIndices.put(index,
+                                       access.getClient()
+                                             .admin()
+                                             .indices()
+                                             .prepareCreate(index)
+                                             .setSettings(createIndexSettings(ed))
+                                             .execute());
+                } catch (Exception e) {
+                    IndexAccess.LOG.WARN(e);
+                    changes.add("Cannot create index " + index + ": " + e.getMessage());
+                }
+            }
+        }
+
+        for (Map.Entry<String, ActionFuture<CreateIndexResponse>> pendingIndex : pendingIndices.entrySet()) {
+            awaitIndexCreation(pendingIndex.getKey(), pendingIndex.getValue(), changes);
+        }
+    }
+
+    private boolean indexExists(@Nullable MetaData metaData, String index) {
+        if (metaData != null) {
+            // The index might also be an alias which points to the physical index (see IndexMigration)...
+            return metaData.getAliasAndIndexLookup().containsKey(index);
+        }
+
         try {
             IndicesExistsResponse res =
                     access.getClient().admin().indices().prepareExists(index).execute().get(10, TimeUnit.SECONDS);
-            if (!res.isExists()) {
-                CreateIndexResponse createResponse = access.getClient()
-                                                           .admin()
-                                                           .indices()
-                                                           .prepareCreate(index)
-                                                           .setSettings(createIndexSettings(descriptor))
-                                                           .execute()
-                                                           .get(10, TimeUnit.SECONDS);
-                if (createResponse.isAcknowledged()) {
-                    changes.add("Created index " + index + " successfully!");
-                } else {
-                    changes.add("Failed to create index " + index + "!");
-                }
+            return res.isExists();
+        } catch (Exception e) {
+            IndexAccess.LOG.WARN(e);
+            return false;
+        }
+    }
+
+    private void awaitIndexCreation(String index,
+                                    ActionFuture<CreateIndexResponse> future,
+                                    List<String> changes) {
+        try {
+            if (future.get(10, TimeUnit.SECONDS).isAcknowledged()) {
+                changes.add("Created index " + index + " successfully!");
+            } else {
+                changes.add("Failed to create index " + index + "!");
             }
         } catch (Exception e) {
             IndexAccess.LOG.WARN(e);
@@ -234,6 +317,69 @@ public class Schema {
         }
     }
 
+    /*
+     * Determines if the mapping of the given entity has to be put. This is the case, if no existing mapping is
+     * known or if the existing mapping doesn't contain everything of the expected one. Additional settings of the
+     * existing mapping (e.g. defaults filled in by ElasticSearch) are ignored.
+     */
+    private boolean isMappingChanged(@Nullable MetaData metaData, String index, EntityDescriptor ed)
+            throws IOException {
+        if (metaData == null || !metaData.getAliasAndIndexLookup().containsKey(index)) {
+            return true;
+        }
+
+        Map<String, Object> expectedMappings =
+                XContentHelper.convertToMap(ed.createMapping().bytes(), false, XContentType.JSON).v2();
+        Object expectedMapping = expectedMappings.get(ed.getType());
+        for (IndexMetaData indexMetaData : metaData.getAliasAndIndexLookup().get(index).getIndices()) {
+            MappingMetaData existingMapping = indexMetaData.mapping(ed.getType());
+            if (existingMapping == null || !containsMapping(existingMapping.getSourceAsMap(), expectedMapping)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Checks if the given actual mapping contains all settings of the expected mapping. Scalar values are compared
+     * by their string representation, as ElasticSearch might e.g. report "false" as boolean.
+     */
+    private static boolean containsMapping(Object actual, Object expected) {
+        if (expected instanceof Map) {
+            if (!(actual instanceof Map)) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) expected).entrySet()) {
+                Object actualValue = ((Map<?, ?>) actual).get(entry.getKey());
+                if (!(actualValue == null && isEmpty(entry.getValue())) && !containsMapping(actualValue,
+                                                                                             entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expected instanceof List) {
+            if (!(actual instanceof List) || ((List<?>) actual).size() != ((List<?>) expected).size()) {
+                return false;
+            }
+            for (int i = 0; i < ((List<?>) expected).size(); i++) {
+                if (!containsMapping(((List<?>) actual).get(i), ((List<?>) expected).get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return actual != null && String.valueOf(expected).equals(String.valueOf(actual));
+    }
+
+    private static boolean isEmpty(Object value) {
+        return value == null
+               || (value instanceof Map && ((Map<?, ?>) value).isEmpty())
+               || (value instanceof List && ((List<?>) value).isEmpty());
+    }
+
     private XContentBuilder createIndexSettings(EntityDescriptor ed) throws IOException {
         try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
 
@@ -343,13 +489,20 @@ public class Schema {
      * Initializes the schema by loading all entity classes and running the cross link detection
      */
     public void load() {
+        Map<Class<? extends Entity>, EntityDescriptor> descriptors = new HashMap<>(descriptorTable);
+        Map<String, Class<? extends Entity>> names = new HashMap<>(nameTable);
+
         // Load all known schemas..
         for (Entity e : Injector.context().getParts(Entity.class)) {
-            addKnownClass(e.getClass());
+            addKnownClass(e.getClass(), descriptors, names);
         }
 
-        // Detect cross references
-        linkSchema();
+        // Detect cross references (this also computes all properties of each descriptor)...
+        linkSchema(descriptors);
+
+        // Publish the completely initialized descriptors...
+        nameTable = ImmutableMap.copyOf(names);
+        descriptorTable = ImmutableMap.copyOf(descriptors);
     }
 
     /**
@@ -363,6 +516,16 @@ public class Schema {
         access.tasks.defaultExecutor().fork(new ReIndexTask(this, newPrefix));
     }
 
+    /**
+     * Migrates all indices into new physical indices without any downtime.
+     * <p>
+     * This is the preferred way to apply mapping changes on a live system. See {@link IndexMigration} for a
+     * description of the individual steps.
+     */
+    public void migrate() {
+        access.tasks.defaultExecutor().fork(new IndexMigration(this, access, indexPrefix));
+    }
+
     /**
      * Deletes all temporarily created indices (used by UNIT tests).
      */
@@ -0,0 +1,297 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.BulkByScrollTask;
+import org.elasticsearch.index.reindex.UpdateByQueryAction;
+import org.elasticsearch.index.reindex.UpdateByQueryRequestBuilder;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.tasks.TaskInfo;
+import sirius.kernel.async.TaskContext;
+import sirius.kernel.commons.Context;
+import sirius.kernel.commons.RateLimit;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.health.Exceptions;
+import sirius.search.properties.Property;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Performs a server side modification of all entities matched by a query.
+ * <p>
+ * The field assignments are sent as script to ElasticSearch, which applies them via an <tt>update-by-query</tt>.
+ * Therefore no entity has to be transferred to or from the cluster at all. Use {@link Query#updateByScript()} to
+ * create an instance.
+ * <p>
+ * Just like for an {@link AtomicUpdate}, neither the save checks and handlers of the entities, nor the foreign
+ * key updates are executed. Also the entity cache is not invalidated. As the modified documents aren't known
+ * locally, they are not mirrored into the new indices of a running migration. Rather the final pass of the
+ * migration copies them before switching to the new indices.
+ *
+ * @param <E> the type of the entities to update
+ */
+public class ScriptedUpdate<E extends Entity> {
+
+    private static final String LANGUAGE_PAINLESS = "painless";
+
+    /**
+     * Contains the name of the script parameter which makes the task of this update identifiable.
+     */
+    private static final String PARAM_MARKER = "marker";
+
+    @ConfigValue("index.updateByQuery.slices")
+    private static int defaultSlices;
+
+    @ConfigValue("index.updateByQuery.batchSize")
+    private static int batchSize;
+
+    @ConfigValue("index.updateByQuery.requestsPerSecond")
+    private static int defaultRequestsPerSecond;
+
+    private final IndexAccess index;
+    private final EntityDescriptor descriptor;
+    private final String indexName;
+    private final UpdateByQueryRequestBuilder request;
+    private final StringBuilder script = new StringBuilder();
+    private final Context params = Context.create();
+    private final Set<String> touchedFields = new LinkedHashSet<>();
+    private final String marker = UUID.randomUUID().toString();
+    private int slices = defaultSlices;
+    private float requestsPerSecond = defaultRequestsPerSecond;
+    private boolean abortOnConflicts;
+
+    /**
+     * Creates a new update which modifies all documents matched by the given request.
+     *
+     * @param index      the IndexAccess instance
+     * @param descriptor the descriptor of the entities to update
+     * @param indexName  the name of the index being updated
+     * @param request    the request which already selects the documents to update
+     */
+    protected ScriptedUpdate(IndexAccess index,
+                             EntityDescriptor descriptor,
+                             String indexName,
+                             UpdateByQueryRequestBuilder request) {
+        this.index = index;
+        this.descriptor = descriptor;
+        this.indexName = indexName;
+        this.request = request;
+    }
+
+    /**
+     * Sets the given field to the given value.
+     *
+     * @param field the name of the field to set
+     * @param value the new value, which is converted by the property just like a regular field value
+     * @return the update itself for fluent method calls
+     */
+    public ScriptedUpdate<E> set(String field, Object value) {
+        Property property = descriptor.getProperty(field);
+        if (property == null) {
+            throw new IllegalArgumentException(String.format("Unknown field '%s' in type %s",
+                                                             field,
+                                                             descriptor.getType()));
+        }
+        touchedFields.add(field);
+        String param = "p" + params.size();
+        params.put(param, property.transformValueToSource(value));
+        script.append("ctx._source['").append(field).append("'] = params.").append(param).append(";");
+        return this;
+    }
+
+    /**
+     * Specifies the number of slices into which the update is split, so that these are processed in parallel.
+     * <p>
+     * Use 0 to let ElasticSearch pick a number of slices (one per shard). By default
+     * <tt>index.updateByQuery.slices</tt> is used.
+     *
+     * @param slices the number of slices to use
+     * @return the update itself for fluent method calls
+     */
+    public ScriptedUpdate<E> withSlices(int slices) {
+        this.slices = Math.max(0, slices);
+        return this;
+    }
+
+    /**
+     * Throttles the update to the given number of documents per second.
+     * <p>
+     * Use 0 to disable throttling. By default <tt>index.updateByQuery.requestsPerSecond</tt> is used.
+     *
+     * @param requestsPerSecond the max. number of documents to update per second
+     * @return the update itself for fluent method calls
+     */
+    public ScriptedUpdate<E> withRequestsPerSecond(float requestsPerSecond) {
+        this.requestsPerSecond = Math.max(0, requestsPerSecond);
+        return this;
+    }
+
+    /**
+     * Aborts the update once a document is found which was modified concurrently.
+     * <p>
+     * By default, concurrently modified documents are skipped and only counted.
+     *
+     * @return the update itself for fluent method calls
+     */
+    public ScriptedUpdate<E> abortOnConflicts() {
+        this.abortOnConflicts = true;
+        return this;
+    }
+
+    /**
+     * Executes the update and waits until all documents have been processed.
+     * <p>
+     * While waiting, the progress is reported to the current {@link TaskContext}. If the task context is cancelled,
+     * the update is cancelled within the cluster as well.
+     *
+     * @return the number of updated entities
+     */
+    public long execute() {
+        if (touchedFields.isEmpty()) {
+            return 0;
+        }
+        try {
+            params.put(PARAM_MARKER, marker);
+            request.script(new Script(ScriptType.INLINE, LANGUAGE_PAINLESS, script.toString(), params))
+                   .setSlices(slices)
+                   .setRequestsPerSecond(requestsPerSecond > 0 ? requestsPerSecond : Float.POSITIVE_INFINITY)
+                   .abortOnVersionConflict(abortOnConflicts)
+                   .refresh(true);
+            request.source().setSize(batchSize);
+            if (IndexAccess.LOG.isFINE()) {
+                IndexAccess.LOG.FINE("UPDATE-BY-QUERY: %s.%s: %s", indexName, descriptor.getType(), script);
+            }
+
+            Watch w = Watch.start();
+            BulkByScrollResponse response = awaitResponse(request.execute());
+            w.submitMicroTiming("ES", "UPDATE-BY-QUERY " + descriptor.getType());
+
+            return handleResponse(response, w);
+        } catch (Exception e) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to update %s.%s by query: %s (%s)",
+                                                    indexName,
+                                                    descriptor.getType())
+                            .handle();
+        }
+    }
+
+    private BulkByScrollResponse awaitResponse(ActionFuture<BulkByScrollResponse> future) throws Exception {
+        TaskContext ctx = TaskContext.get();
+        RateLimit rateLimit = RateLimit.timeInterval(5, TimeUnit.SECONDS);
+        boolean cancelled = false;
+        while (true) {
+            try {
+                return future.get(1, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                Exceptions.ignore(e);
+            }
+            if (!cancelled && !ctx.isActive()) {
+                cancelRunningTasks();
+                cancelled = true;
+            } else if (rateLimit.check()) {
+                reportProgress(ctx);
+            }
+        }
+    }
+
+    /*
+     * As the transport client doesn't tell us the id of the task being started, we inspect all running
+     * update-by-query tasks (excluding their slices). The description of a task contains the script along with its
+     * parameters, therefore the unique marker of this update identifies its task.
+     */
+    private List<TaskInfo> findRunningTasks() {
+        return index.getClient()
+                    .admin()
+                    .cluster()
+                    .prepareListTasks()
+                    .setActions(UpdateByQueryAction.NAME)
+                    .setDetailed(true)
+                    .get()
+                    .getTasks()
+                    .stream()
+                    .filter(task -> !task.getParentTaskId().isSet())
+                    .filter(task -> task.getDescription() != null && task.getDescription().contains(marker))
+                    .collect(Collectors.toList());
+    }
+
+    private void reportProgress(TaskContext ctx) {
+        try {
+            long total = 0;
+            long processed = 0;
+            long conflicts = 0;
+            for (TaskInfo task : findRunningTasks()) {
+                if (task.getStatus() instanceof BulkByScrollTask.Status) {
+                    BulkByScrollTask.Status status = (BulkByScrollTask.Status) task.getStatus();
+                    total += status.getTotal();
+                    processed += status.getUpdated() + status.getNoops() + status.getVersionConflicts();
+                    conflicts += status.getVersionConflicts();
+                }
+            }
+            ctx.setState("Updating %s by query... (%s of %s, %s conflicts)",
+                         descriptor.getType(),
+                         processed,
+                         total,
+                         conflicts);
+        } catch (Exception e) {
+            Exceptions.ignore(e);
+        }
+    }
+
+    private void cancelRunningTasks() {
+        for (TaskInfo task : findRunningTasks()) {
+            index.getClient().admin().cluster().prepareCancelTasks().setTaskId(task.getTaskId()).get();
+            IndexAccess.LOG.INFO("Cancelled %s: %s", task.getTaskId(), task.getDescription());
+        }
+    }
+
+    private long handleResponse(BulkByScrollResponse response, Watch w) {
+        index.queryDuration.addValue(w.elapsedMillis());
+        if (response.getVersionConflicts() > 0) {
+            index.optimisticLockErrors.add(response.getVersionConflicts());
+        }
+        if (!response.getBulkFailures().isEmpty() || !response.getSearchFailures().isEmpty()) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .withSystemErrorMessage("Failed to update %s of %s documents of %s.%s by query: %s",
+                                                    response.getBulkFailures().size()
+                                                    + response.getSearchFailures().size(),
+                                                    response.getTotal(),
+                                                    indexName,
+                                                    descriptor.getType(),
+                                                    response.getBulkFailures()
+                                                            .stream()
+                                                            .limit(10)
+                                                            .map(BulkItemResponse.Failure::getMessage)
+                                                            .collect(Collectors.joining(", ")))
+                            .handle();
+        }
+        IndexAccess.LOG.INFO("Updated %s of %s documents of %s.%s by query (%s conflicts) in %s",
+                             response.getUpdated(),
+                             response.getTotal(),
+                             indexName,
+                             descriptor.getType(),
+                             response.getVersionConflicts(),
+                             w.duration());
+        return response.getUpdated();
+    }
+}
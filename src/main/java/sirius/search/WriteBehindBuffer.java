@@ -0,0 +1,230 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search;
+
+import com.google.common.collect.Lists;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.common.bytes.BytesReference;
+import sirius.kernel.health.Exceptions;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+
+/**
+ * Buffers updates of entities which are marked as {@link sirius.search.annotations.Indexed#writeBehind()}.
+ * <p>
+ * As entities might be modified further by their callers, the buffer never writes the state of a buffered entity.
+ * Rather the source of each update is rendered when it is buffered and stored along with the version the update is
+ * based on. The entity itself is only referenced to apply the new version once it has been written. Only the most
+ * recent source per entity is kept and written in bulk once the buffer is flushed. Each write is guarded by the
+ * version of the entity, so that concurrent modifications (e.g. by another node) are detected and reported instead
+ * of being overwritten.
+ * <p>
+ * Note that the save handlers of an entity (including its foreign keys) are executed when the update is buffered.
+ * Therefore, referencing entities might already reflect a change, before the buffered write is persisted.
+ */
+class WriteBehindBuffer {
+
+    /**
+     * Contains the max number of entities written in a single bulk request
+     */
+    private static final int MAX_BULK_SIZE = 1000;
+
+    private final IndexAccess index;
+    private final Object lock = new Object();
+    private Map<String, PendingWrite> buffer = new LinkedHashMap<>();
+
+    /**
+     * Represents a buffered update of an entity.
+     */
+    private static class PendingWrite {
+
+        private final String key;
+        private final Entity entity;
+        private final EntityDescriptor descriptor;
+        private final IndexRequestBuilder request;
+        private final BytesReference source;
+        private long version;
+
+        private PendingWrite(String key,
+                             Entity entity,
+                             EntityDescriptor descriptor,
+                             IndexRequestBuilder request,
+                             BytesReference source) {
+            this.key = key;
+            this.entity = entity;
+            this.descriptor = descriptor;
+            this.request = request;
+            this.source = source;
+            this.version = entity.getVersion();
+        }
+    }
+
+    /**
+     * Creates a new buffer which writes to the given index.
+     *
+     * @param index the IndexAccess instance used to write the buffered entities
+     */
+    WriteBehindBuffer(IndexAccess index) {
+        this.index = index;
+    }
+
+    /**
+     * Adds the given update to the buffer, replacing a previously buffered update of the same entity.
+     * <p>
+     * The update is written using the current version of the entity, therefore the save checks have to be executed
+     * and the source has to be rendered by the caller.
+     *
+     * @param entity     the entity being updated
+     * @param descriptor the descriptor of the entity
+     * @param request    the prepared index request (without a version)
+     * @param source     the rendered source of the entity which is sent by the request
+     */
+    void add(Entity entity, EntityDescriptor descriptor, IndexRequestBuilder request, BytesReference source) {
+        String key = computeKey(entity);
+        synchronized (lock) {
+            buffer.put(key, new PendingWrite(key, entity, descriptor, request, source));
+        }
+    }
+
+    /**
+     * Removes the given entity from the buffer, e.g. as it is about to be deleted.
+     *
+     * @param entity the entity to remove
+     */
+    void discard(Entity entity) {
+        synchronized (lock) {
+            buffer.remove(computeKey(entity));
+        }
+    }
+
+    private String computeKey(Entity entity) {
+        return entity.getClass().getName() + "-" + entity.getId();
+    }
+
+    /**
+     * Returns the number of buffered entities.
+     *
+     * @return the number of entities waiting to be written
+     */
+    int size() {
+        synchronized (lock) {
+            return buffer.size();
+        }
+    }
+
+    /**
+     * Writes all buffered updates in bulk.
+     * <p>
+     * Updates which fail due to a concurrent modification are dropped and reported.
+     */
+    synchronized void flush() {
+        List<PendingWrite> writes;
+        synchronized (lock) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            writes = new ArrayList<>(buffer.values());
+            buffer = new LinkedHashMap<>();
+        }
+
+        if (IndexAccess.LOG.isFINE()) {
+            IndexAccess.LOG.FINE("WRITE-BEHIND: Flushing %d entities", writes.size());
+        }
+
+        for (List<PendingWrite> bulk : Lists.partition(writes, MAX_BULK_SIZE)) {
+            try {
+                writeBulk(bulk);
+            } catch (Exception e) {
+                Exceptions.handle(IndexAccess.LOG, e);
+            }
+        }
+    }
+
+    private void writeBulk(List<PendingWrite> writes) {
+        BulkRequestBuilder brb = index.getClient().prepareBulk();
+        for (PendingWrite write : writes) {
+            brb.add(write.request.setVersion(write.version));
+        }
+        BulkResponse response = brb.execute().actionGet();
+
+        List<String> conflicts = new ArrayList<>();
+        for (int i = 0; i < response.getItems().length; i++) {
+            PendingWrite write = writes.get(i);
+            BulkItemResponse item = response.getItems()[i];
+            if (!item.isFailed()) {
+                completed(write, item.getVersion());
+            } else if (index.isVersionConflict(item)) {
+                index.optimisticLockErrors.inc();
+                conflicts.add(write.entity.getId());
+            } else {
+                Exceptions.handle()
+                          .to(IndexAccess.LOG)
+                          .withSystemErrorMessage("Failed to write behind %s (%s): %s",
+                                                  write.entity.getClass().getSimpleName(),
+                                                  write.entity.getId(),
+                                                  item.getFailureMessage())
+                          .handle();
+            }
+        }
+
+        if (!conflicts.isEmpty()) {
+            IndexAccess.LOG.WARN("WRITE-BEHIND: Discarded the updates of %s entities, as these have been modified"
+                                 + " concurrently: %s", conflicts.size(), conflicts);
+        }
+    }
+
+    /*
+     * Applies the new version to the entity (if it wasn't written otherwise in the meantime) and to an update of the
+     * same entity which has been buffered while the bulk request was running.
+     */
+    private void completed(PendingWrite write, long newVersion) {
+        boolean upToDate;
+        synchronized (lock) {
+            upToDate = write.entity.getVersion() == write.version;
+            if (upToDate) {
+                write.entity.version = newVersion;
+            }
+            PendingWrite next = buffer.get(write.key);
+            if (next != null && next.version == write.version) {
+                next.version = newVersion;
+            }
+        }
+        if (upToDate) {
+            index.mirrorWrite(write.entity, write.descriptor, write.source);
+        }
+    }
+
+    /**
+     * Implementation of the timer which periodically flushes the buffer.
+     */
+    static class Flusher extends TimerTask {
+
+        private final WriteBehindBuffer buffer;
+
+        Flusher(WriteBehindBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                buffer.flush();
+            } catch (Exception e) {
+                Exceptions.handle(IndexAccess.LOG, e);
+            }
+        }
+    }
+}
@@ -57,4 +57,21 @@ public @interface Indexed {
      * @return the framework which must be enabled in order to load this entity class
      */
     String framework() default "";
+
+    /**
+     * Determines if updates of existing entities are buffered and written in bulk.
+     * <p>
+     * This is intended for entities which are updated very frequently (e.g. statistics or timestamps) where only
+     * the most recent state matters. Calling {@link sirius.search.IndexAccess#update(sirius.search.Entity)} for such
+     * an entity executes its save checks and handlers right away, but only stores its rendered source in a local
+     * buffer, which is flushed periodically (see <tt>index.writeBehindInterval</tt>) and on shutdown. Only the latest
+     * state per entity is written, guarded by the version of the entity when it was buffered. Updates which clash
+     * with a concurrent modification are dropped and reported once the buffer is flushed. Note that a buffered change
+     * is not visible to readers until then, whereas foreign keys already propagate it to referencing entities. New
+     * entities as well as all other kinds of updates (e.g. <tt>tryUpdate</tt> or <tt>override</tt>) are always
+     * written immediately.
+     *
+     * @return <tt>true</tt> if updates should be buffered, <tt>false</tt> otherwise
+     */
+    boolean writeBehind() default false;
 }
@@ -0,0 +1,86 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search.controller;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+import sirius.search.Entity;
+import sirius.search.IndexAccess;
+import sirius.search.Query;
+import sirius.web.controller.BasicController;
+import sirius.web.controller.Controller;
+import sirius.web.controller.Routed;
+import sirius.web.http.WebContext;
+import sirius.web.security.Permission;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the raw <tt>_source</tt> of all matching entities of a type as JSON Lines.
+ * <p>
+ * Supports the parameters <tt>query</tt> (filters the entities), <tt>fields</tt> (a comma separated list of fields
+ * to export) and <tt>gzip</tt> (compresses the response). See {@link Query#exportTo(OutputStream)} for details.
+ */
+@Register(classes = Controller.class)
+public class IndexExportController extends BasicController {
+
+    /**
+     * Describes the permission required to export the contents of the index.
+     */
+    public static final String PERMISSION_INDEX_EXPORT = "permission-index-export";
+
+    @Part
+    private IndexAccess index;
+
+    /**
+     * Exports all entities of the given type.
+     *
+     * @param ctx      the request to handle
+     * @param typeName the name of the entity type to export
+     */
+    @Permission(PERMISSION_INDEX_EXPORT)
+    @Routed("/system/index/export/:1")
+    public void export(WebContext ctx, String typeName) {
+        Class<? extends Entity> type = index.getType(typeName);
+        if (type == null) {
+            ctx.respondWith().error(HttpResponseStatus.NOT_FOUND, "Unknown type: " + typeName);
+            return;
+        }
+
+        Query<? extends Entity> query = index.select(type).deliberatelyUnrouted();
+        if (ctx.get("query").isFilled()) {
+            query.query(ctx.get("query").asString());
+        }
+        if (ctx.get("fields").isFilled()) {
+            query.fields(ctx.get("fields").asString().split(","));
+        }
+
+        try (OutputStream out = openResponse(ctx, typeName, ctx.get("gzip").asBoolean(false))) {
+            query.exportTo(out);
+        } catch (Exception e) {
+            Exceptions.handle(IndexAccess.LOG, e);
+        }
+    }
+
+    private OutputStream openResponse(WebContext ctx, String typeName, boolean gzip) throws IOException {
+        if (gzip) {
+            return new GZIPOutputStream(ctx.respondWith()
+                                           .download(typeName + ".jsonl.gz")
+                                           .outputStream(HttpResponseStatus.OK, "application/gzip"));
+        }
+
+        return ctx.respondWith()
+                  .download(typeName + ".jsonl")
+                  .outputStream(HttpResponseStatus.OK, "application/x-ndjson");
+    }
+}
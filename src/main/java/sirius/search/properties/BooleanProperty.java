@@ -9,9 +9,7 @@
 package sirius.search.properties;
 
 import sirius.kernel.di.std.Register;
-import sirius.kernel.health.Exceptions;
 import sirius.search.Entity;
-import sirius.search.IndexAccess;
 import sirius.web.http.WebContext;
 
 import java.lang.reflect.Field;
@@ -52,14 +50,10 @@ public class BooleanProperty extends Property {
 
     @Override
     public void readFromRequest(Entity entity, WebContext ctx) {
-        try {
-            if (ctx.get(getName()).isNull()) {
-                getField().set(entity, false);
-            } else {
-                getField().set(entity, transformFromRequest(getName(), ctx));
-            }
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
+        if (ctx.get(getName()).isNull()) {
+            setValue(entity, false);
+        } else {
+            setValue(entity, transformFromRequest(getName(), ctx));
         }
     }
 
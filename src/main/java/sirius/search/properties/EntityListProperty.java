@@ -8,15 +8,17 @@
 
 package sirius.search.properties;
 
+import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Value;
 import sirius.kernel.di.std.Register;
-import sirius.kernel.health.Exceptions;
 import sirius.search.Entity;
 import sirius.search.EntityRefList;
-import sirius.search.IndexAccess;
 import sirius.search.annotations.RefType;
 import sirius.web.http.WebContext;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -52,7 +54,7 @@ public class EntityListProperty extends Property {
     @Override
     @SuppressWarnings("unchecked")
     public void init(Entity entity) throws IllegalAccessException {
-        getField().set(entity, new EntityRefList<>((Class<Entity>) getField().getAnnotation(RefType.class).type()));
+        setValue(entity, new EntityRefList<>((Class<Entity>) getField().getAnnotation(RefType.class).type()));
     }
 
     @Override
@@ -66,14 +68,33 @@ public class EntityListProperty extends Property {
         return entityRef.getIds();
     }
 
+    /**
+     * Transforms the given reference list or collection of entities or ids into the ids stored in the database.
+     *
+     * @param value the reference list or collection of entities or ids to transform
+     * @return the ids of the referenced entities
+     */
+    @Override
+    public Object transformValueToSource(Object value) {
+        if (value instanceof EntityRefList) {
+            return transformToSource(value);
+        }
+        List<String> ids = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                String id = element instanceof Entity ? ((Entity) element).getId() : Value.of(element).getString();
+                if (Strings.isFilled(id)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public void readFromRequest(Entity entity, WebContext ctx) {
-        try {
-            ((EntityRefList<?>) getField().get(entity)).setIds((List<String>) transformFromRequest(getName(), ctx));
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
-        }
+        ((EntityRefList<?>) getValue(entity)).setIds((List<String>) transformFromRequest(getName(), ctx));
     }
 
     @Override
@@ -84,12 +105,8 @@ public class EntityListProperty extends Property {
     @Override
     @SuppressWarnings("unchecked")
     public void readFromSource(Entity entity, Object value) {
-        try {
-            ((EntityRefList<?>) getField().get(entity)).setIds((List<String>) value);
-            entity.setSource(getField().getName(), value);
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
-        }
+        ((EntityRefList<?>) getValue(entity)).setIds((List<String>) value);
+        entity.setSource(getField().getName(), writeToSource(entity));
     }
 
     @Override
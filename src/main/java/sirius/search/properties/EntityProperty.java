@@ -8,11 +8,10 @@
 
 package sirius.search.properties;
 
+import sirius.kernel.commons.Strings;
 import sirius.kernel.di.std.Register;
-import sirius.kernel.health.Exceptions;
 import sirius.search.Entity;
 import sirius.search.EntityRef;
-import sirius.search.IndexAccess;
 import sirius.search.annotations.RefType;
 import sirius.web.http.WebContext;
 
@@ -51,7 +50,7 @@ public class EntityProperty extends Property {
     @Override
     @SuppressWarnings("unchecked")
     public void init(Entity entity) throws IllegalAccessException {
-        getField().set(entity, new EntityRef<>((Class<Entity>) getField().getAnnotation(RefType.class).type()));
+        setValue(entity, new EntityRef<>((Class<Entity>) getField().getAnnotation(RefType.class).type()));
     }
 
     @Override
@@ -68,28 +67,37 @@ public class EntityProperty extends Property {
         return entityRef.getId();
     }
 
+    /**
+     * Transforms the given reference, entity or id into the id which is stored in the database.
+     *
+     * @param value the reference, entity or id to transform
+     * @return the id of the referenced entity or <tt>null</tt> if no entity is referenced
+     */
+    @Override
+    public Object transformValueToSource(Object value) {
+        if (value instanceof EntityRef) {
+            return transformToSource(value);
+        }
+        if (value instanceof Entity) {
+            return ((Entity) value).getId();
+        }
+        return Strings.isEmpty(value) ? null : value.toString();
+    }
+
     @Override
     public void readFromRequest(Entity entity, WebContext ctx) {
-        try {
-            if (ctx.get(getName()).isNull()) {
-                return;
-            }
-            ((EntityRef<?>) getField().get(entity)).setId(ctx.get(getName()).asString());
-        } catch (IllegalAccessException e) {
-            throw Exceptions.handle(IndexAccess.LOG, e);
+        if (ctx.get(getName()).isNull()) {
+            return;
         }
+        ((EntityRef<?>) getValue(entity)).setId(ctx.get(getName()).asString());
     }
 
     @Override
     public void readFromSource(Entity entity, Object value) {
-        try {
-            EntityRef<?> entityRef = (EntityRef<?>) getField().get(entity);
-            entityRef.setId((String) value);
-            entityRef.clearDirty();
-            entity.setSource(getField().getName(), value);
-        } catch (IllegalAccessException e) {
-            throw Exceptions.handle(IndexAccess.LOG, e);
-        }
+        EntityRef<?> entityRef = (EntityRef<?>) getValue(entity);
+        entityRef.setId((String) value);
+        entityRef.clearDirty();
+        entity.setSource(getField().getName(), writeToSource(entity));
     }
 
     @Override
@@ -13,7 +13,6 @@ import sirius.kernel.commons.Value;
 import sirius.kernel.di.std.Register;
 import sirius.kernel.health.Exceptions;
 import sirius.search.Entity;
-import sirius.search.IndexAccess;
 import sirius.search.annotations.ListType;
 import sirius.web.http.WebContext;
 
@@ -55,7 +54,7 @@ public class EnumListProperty extends Property {
 
     @Override
     public void init(Entity entity) throws IllegalAccessException {
-        getField().set(entity, new ArrayList<String>());
+        setValue(entity, new ArrayList<String>());
     }
 
     @Override
@@ -97,11 +96,7 @@ public class EnumListProperty extends Property {
 
     @Override
     public void readFromRequest(Entity entity, WebContext ctx) {
-        try {
-            getField().set(entity, transformFromRequest(getName(), ctx));
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
-        }
+        setValue(entity, transformFromRequest(getName(), ctx));
     }
 
     @Override
@@ -9,21 +9,16 @@
 package sirius.search.properties;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import sirius.kernel.commons.Amount;
 import sirius.kernel.di.std.Register;
 import sirius.kernel.health.Exceptions;
-import sirius.kernel.nls.NLS;
 import sirius.search.Entity;
 import sirius.search.IndexAccess;
 import sirius.search.annotations.ListType;
-import sirius.search.annotations.Transient;
 import sirius.web.http.WebContext;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -67,7 +62,7 @@ public class ObjectListProperty extends Property {
 
     @Override
     public void init(Entity entity) throws IllegalAccessException {
-        getField().set(entity, new ArrayList<>());
+        setValue(entity, new ArrayList<>());
     }
 
     @Override
@@ -89,7 +84,6 @@ public class ObjectListProperty extends Property {
         builder.endObject();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     protected Object transformFromSource(Object value) {
         List<Object> result = new ArrayList<>();
@@ -97,9 +91,10 @@ public class ObjectListProperty extends Property {
             return result;
         }
 
+        PojoCodec codec = getCodec();
         for (Object object : (List<?>) value) {
             if (object instanceof Map) {
-                Object obj = transformObject((Map<String, String>) object);
+                Object obj = transformObject(codec, (Map<?, ?>) object);
                 if (obj != null) {
                     result.add(obj);
                 }
@@ -109,18 +104,9 @@ public class ObjectListProperty extends Property {
         return result;
     }
 
-    private Object transformObject(Map<String, String> map) {
+    private Object transformObject(PojoCodec codec, Map<?, ?> map) {
         try {
-            Class<?> targetClass = getField().getAnnotation(ListType.class).value();
-            Object obj = targetClass.newInstance();
-
-            for (Field innerField : targetClass.getDeclaredFields()) {
-                if (!innerField.isAnnotationPresent(Transient.class) && !Modifier.isStatic(innerField.getModifiers())) {
-                    transformField(map, obj, innerField);
-                }
-            }
-
-            return obj;
+            return codec.decode(map);
         } catch (Exception e) {
             Exceptions.handle()
                       .error(e)
@@ -131,78 +117,42 @@ public class ObjectListProperty extends Property {
         }
     }
 
-    private void transformField(Map<String, String> map, Object obj, Field innerField) {
-        try {
-            if (map.containsKey(innerField.getName())) {
-                innerField.setAccessible(true);
-
-                if (Amount.class.equals(innerField.getType())) {
-                    innerField.set(obj, Amount.ofMachineString(map.get(innerField.getName())));
-                    return;
-                }
-
-                innerField.set(obj, NLS.parseMachineString(innerField.getType(), map.get(innerField.getName())));
-            }
-        } catch (Exception e) {
-            Exceptions.handle()
-                      .error(e)
-                      .to(IndexAccess.LOG)
-                      .withSystemErrorMessage("Cannot load POJO field %s of %s: %s (%s)",
-                                              innerField.getName(),
-                                              toString())
-                      .handle();
-        }
-    }
-
     @Override
     protected Object transformToSource(Object o) {
-        List<Map<String, String>> result = new ArrayList<>();
+        List<Map<String, Object>> result = new ArrayList<>();
         if (!(o instanceof List<?>)) {
             return result;
         }
 
+        PojoCodec codec = getCodec();
         for (Object obj : (List<?>) o) {
             if (obj != null) {
-                Map<String, String> valueMap = transformObject(obj);
-                result.add(valueMap);
+                result.add(codec.encode(obj));
             }
         }
 
         return result;
     }
 
-    private Map<String, String> transformObject(Object obj) {
-        Map<String, String> valueMap = new HashMap<>();
-        Class<?> targetClass = getField().getAnnotation(ListType.class).value();
-        for (Field innerField : targetClass.getDeclaredFields()) {
-            if (!innerField.isAnnotationPresent(Transient.class) && !Modifier.isStatic(innerField.getModifiers())) {
-                transformValue(obj, valueMap, innerField);
+    @Override
+    public void writeToSource(Entity entity, XContentBuilder builder) throws IOException {
+        builder.startArray(getName());
+        Object list = getValue(entity);
+        if (list instanceof List<?>) {
+            PojoCodec codec = getCodec();
+            for (Object obj : (List<?>) list) {
+                if (obj != null) {
+                    builder.startObject();
+                    codec.write(obj, builder);
+                    builder.endObject();
+                }
             }
         }
-        return valueMap;
+        builder.endArray();
     }
 
-    private void transformValue(Object obj, Map<String, String> valueMap, Field innerField) {
-        try {
-            innerField.setAccessible(true);
-            Object val = innerField.get(obj);
-            if (val != null) {
-                if (val instanceof Amount) {
-                    valueMap.put(innerField.getName(), ((Amount) val).getAmount().toPlainString());
-                    return;
-                }
-
-                valueMap.put(innerField.getName(), NLS.toMachineString(val));
-            }
-        } catch (Exception e) {
-            Exceptions.handle()
-                      .error(e)
-                      .to(IndexAccess.LOG)
-                      .withSystemErrorMessage("Cannot save POJO field %s of %s: %s (%s)",
-                                              innerField.getName(),
-                                              toString())
-                      .handle();
-        }
+    private PojoCodec getCodec() {
+        return PojoCodec.forListElement(getField().getAnnotation(ListType.class).value());
     }
 
     @Override
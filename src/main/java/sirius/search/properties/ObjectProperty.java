@@ -10,18 +10,12 @@ package sirius.search.properties;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import sirius.kernel.di.std.Register;
-import sirius.kernel.health.Exceptions;
-import sirius.kernel.nls.NLS;
-import sirius.search.IndexAccess;
+import sirius.search.Entity;
 import sirius.search.annotations.NestedObject;
-import sirius.search.annotations.Transient;
 import sirius.search.suggestion.AutoCompletion;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -74,91 +68,38 @@ public class ObjectProperty extends Property {
     @Override
     protected Object transformToSource(Object o) {
         if (o != null) {
-            Map<String, Object> valueMap = new HashMap<>();
-            Class<?> targetClass = getField().getAnnotation(NestedObject.class).value();
-            for (Field innerField : targetClass.getDeclaredFields()) {
-                transformField(o, valueMap, innerField);
-            }
-            return valueMap;
+            return getCodec().encode(o);
         } else {
             return null;
         }
     }
 
-    private void transformField(Object o, Map<String, Object> valueMap, Field innerField) {
-        if (innerField.isAnnotationPresent(Transient.class) || Modifier.isStatic(innerField.getModifiers())) {
+    @Override
+    public void writeToSource(Entity entity, XContentBuilder builder) throws IOException {
+        Object o = getValue(entity);
+        if (o == null) {
+            builder.nullField(getName());
             return;
         }
-        try {
-            innerField.setAccessible(true);
-            Object val = innerField.get(o);
-            if (val != null) {
-                if (val instanceof Map || val instanceof List) {
-                    valueMap.put(innerField.getName(), val);
-                } else {
-                    valueMap.put(innerField.getName(), NLS.toMachineString(val));
-                }
-            }
-        } catch (Exception e) {
-            Exceptions.handle()
-                      .error(e)
-                      .to(IndexAccess.LOG)
-                      .withSystemErrorMessage("Cannot save POJO field %s of %s: %s (%s)",
-                                              innerField.getName(),
-                                              toString())
-                      .handle();
-        }
+
+        builder.startObject(getName());
+        getCodec().write(o, builder);
+        builder.endObject();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     protected Object transformFromSource(Object value) {
-        try {
-            if (value == null) {
-                return null;
-            }
-
-            Class<?> targetClass = getField().getAnnotation(NestedObject.class).value();
-            Object obj = targetClass.newInstance();
-
-            if (value instanceof Map) {
-                Map<String, String> values = (Map<String, String>) value;
-                for (Field innerField : targetClass.getDeclaredFields()) {
-                    fillField(obj, values, innerField);
-                }
-            }
-            return obj;
-        } catch (Exception e) {
-            throw Exceptions.handle()
-                            .error(e)
-                            .to(IndexAccess.LOG)
-                            .withSystemErrorMessage("Cannot load POJO in %s: %s (%s)", toString())
-                            .handle();
+        if (value == null) {
+            return null;
         }
-    }
 
-    private void fillField(Object obj, Map<String, String> values, Field innerField) {
-        if (innerField.isAnnotationPresent(Transient.class) || Modifier.isStatic(innerField.getModifiers())) {
-            return;
+        if (value instanceof Map) {
+            return getCodec().decode((Map<?, ?>) value);
         }
+        return getCodec().newInstance();
+    }
 
-        try {
-            if (values.containsKey(innerField.getName())) {
-                innerField.setAccessible(true);
-                if (innerField.getType().equals(Map.class) || innerField.getType().equals(List.class)) {
-                    innerField.set(obj, values.get(innerField.getName()));
-                } else {
-                    innerField.set(obj, NLS.parseMachineString(innerField.getType(), values.get(innerField.getName())));
-                }
-            }
-        } catch (Exception e) {
-            Exceptions.handle()
-                      .error(e)
-                      .to(IndexAccess.LOG)
-                      .withSystemErrorMessage("Cannot load POJO field %s of %s: %s (%s)",
-                                              innerField.getName(),
-                                              toString())
-                      .handle();
-        }
+    private PojoCodec getCodec() {
+        return PojoCodec.forObject(getField().getAnnotation(NestedObject.class).value());
     }
 }
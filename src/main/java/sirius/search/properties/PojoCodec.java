@@ -0,0 +1,304 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search.properties;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import sirius.kernel.commons.Amount;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.nls.NLS;
+import sirius.search.IndexAccess;
+import sirius.search.annotations.Transient;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Converts the POJOs stored by {@link ObjectProperty} and {@link ObjectListProperty} from and to their storable
+ * representation.
+ * <p>
+ * The persisted fields of a POJO class are determined once per class, along with pre-compiled accessors and
+ * converters which are selected by the type of each field. Therefore reading and writing large lists of nested
+ * objects doesn't require any reflection lookups.
+ */
+class PojoCodec {
+
+    private static final Map<Class<?>, PojoCodec> OBJECT_CODECS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, PojoCodec> LIST_ELEMENT_CODECS = new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+    private final MethodHandle constructor;
+    private final List<FieldCodec> fields = new ArrayList<>();
+
+    /**
+     * Describes how a single field of a POJO is accessed and converted.
+     */
+    private static class FieldCodec {
+        private final Field field;
+        private final String name;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final Function<Object, Object> encoder;
+        private final Function<Object, Object> decoder;
+
+        FieldCodec(Field field, Function<Object, Object> encoder, Function<Object, Object> decoder)
+                throws IllegalAccessException {
+            field.setAccessible(true);
+            this.field = field;
+            this.name = field.getName();
+            this.getter = MethodHandles.lookup()
+                                       .unreflectGetter(field)
+                                       .asType(MethodType.methodType(Object.class, Object.class));
+            // Method handles cannot write final fields, therefore these are filled via reflection...
+            this.setter = Modifier.isFinal(field.getModifiers()) ?
+                          null :
+                          MethodHandles.lookup()
+                                       .unreflectSetter(field)
+                                       .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            this.encoder = encoder;
+            this.decoder = decoder;
+        }
+    }
+
+    /**
+     * Returns the codec for POJOs stored by an {@link ObjectProperty}.
+     * <p>
+     * Maps and lists are stored as they are, all other values are stored as machine strings.
+     *
+     * @param type the class of the POJOs
+     * @return the cached codec for the given class
+     */
+    static PojoCodec forObject(Class<?> type) {
+        return OBJECT_CODECS.computeIfAbsent(type, pojoClass -> new PojoCodec(pojoClass, false));
+    }
+
+    /**
+     * Returns the codec for POJOs stored by an {@link ObjectListProperty}.
+     * <p>
+     * All values are stored as machine strings, amounts are stored as plain decimal numbers.
+     *
+     * @param type the class of the POJOs
+     * @return the cached codec for the given class
+     */
+    static PojoCodec forListElement(Class<?> type) {
+        return LIST_ELEMENT_CODECS.computeIfAbsent(type, pojoClass -> new PojoCodec(pojoClass, true));
+    }
+
+    private PojoCodec(Class<?> type, boolean listElement) {
+        this.type = type;
+        try {
+            Constructor<?> defaultConstructor = type.getDeclaredConstructor();
+            defaultConstructor.setAccessible(true);
+            this.constructor = MethodHandles.lookup()
+                                            .unreflectConstructor(defaultConstructor)
+                                            .asType(MethodType.methodType(Object.class));
+            for (Field field : type.getDeclaredFields()) {
+                if (!field.isAnnotationPresent(Transient.class) && !Modifier.isStatic(field.getModifiers())) {
+                    fields.add(listElement ? createListElementField(field) : createObjectField(field));
+                }
+            }
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw Exceptions.handle()
+                            .to(IndexAccess.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Cannot create a codec for the POJO class %s: %s (%s)",
+                                                    type.getName())
+                            .handle();
+        }
+    }
+
+    private static FieldCodec createObjectField(Field field) throws IllegalAccessException {
+        Class<?> fieldType = field.getType();
+        if (Map.class.isAssignableFrom(fieldType) || List.class.isAssignableFrom(fieldType)) {
+            return new FieldCodec(field, Function.identity(), value -> asContainer(fieldType, value));
+        }
+        if (String.class.equals(fieldType)) {
+            return new FieldCodec(field, Function.identity(), PojoCodec::asString);
+        }
+
+        return new FieldCodec(field, PojoCodec::toObjectValue, value -> fromObjectValue(fieldType, value));
+    }
+
+    private static FieldCodec createListElementField(Field field) throws IllegalAccessException {
+        Class<?> fieldType = field.getType();
+        if (Amount.class.equals(fieldType)) {
+            return new FieldCodec(field,
+                                  value -> ((Amount) value).isFilled() ?
+                                           ((Amount) value).getAmount().toPlainString() :
+                                           null,
+                                  value -> Amount.ofMachineString(asString(value)));
+        }
+        if (String.class.equals(fieldType)) {
+            return new FieldCodec(field, Function.identity(), PojoCodec::asString);
+        }
+
+        return new FieldCodec(field, NLS::toMachineString, value -> NLS.parseMachineString(fieldType, asString(value)));
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    /*
+     * Fields of other types (e.g. Set or Object) are stored as machine strings, unless these contain a map or list
+     * at runtime, which is stored as it is. This keeps existing documents readable.
+     */
+    private static Object toObjectValue(Object value) {
+        if (value instanceof Map || value instanceof List) {
+            return value;
+        }
+        return NLS.toMachineString(value);
+    }
+
+    private static Object fromObjectValue(Class<?> fieldType, Object value) {
+        if ((value instanceof Map || value instanceof List) && fieldType.isInstance(value)) {
+            return value;
+        }
+        return NLS.parseMachineString(fieldType, asString(value));
+    }
+
+    /*
+     * Maps and lists are stored as they are. When loading, the values provided by ElasticSearch are copied into an
+     * appropriate container if these don't match the declared type of the field.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object asContainer(Class<?> fieldType, Object value) {
+        if (value == null || fieldType.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Map && fieldType.isAssignableFrom(LinkedHashMap.class)) {
+            return new LinkedHashMap<>((Map<Object, Object>) value);
+        }
+        if (value instanceof Collection && fieldType.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<>((Collection<Object>) value);
+        }
+        throw new IllegalArgumentException(String.format("Cannot store a %s in a field of type %s",
+                                                         value.getClass().getName(),
+                                                         fieldType.getName()));
+    }
+
+    /**
+     * Converts the given POJO into a map of storable values.
+     *
+     * @param pojo the object to convert
+     * @return a map containing the storable value of each filled field
+     */
+    Map<String, Object> encode(Object pojo) {
+        Map<String, Object> result = new HashMap<>();
+        for (FieldCodec field : fields) {
+            Object value = encodeField(pojo, field);
+            if (value != null) {
+                result.put(field.name, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the storable values of all filled fields of the given POJO into the given builder.
+     * <p>
+     * Note that the surrounding object has to be started and ended by the caller.
+     *
+     * @param pojo    the object to write
+     * @param builder the builder to write the fields to
+     * @throws IOException in case of an io error while generating the JSON
+     */
+    void write(Object pojo, XContentBuilder builder) throws IOException {
+        for (FieldCodec field : fields) {
+            Object value = encodeField(pojo, field);
+            if (value != null) {
+                builder.field(field.name, value);
+            }
+        }
+    }
+
+    private Object encodeField(Object pojo, FieldCodec field) {
+        try {
+            Object value = (Object) field.getter.invokeExact(pojo);
+            if (value == null) {
+                return null;
+            }
+            return field.encoder.apply(value);
+        } catch (Throwable e) {
+            Exceptions.handle()
+                      .error(e)
+                      .to(IndexAccess.LOG)
+                      .withSystemErrorMessage("Cannot save the field %s of the POJO %s: %s (%s)",
+                                              field.name,
+                                              type.getName())
+                      .handle();
+            return null;
+        }
+    }
+
+    /**
+     * Creates a new POJO and fills it with the given storable values.
+     *
+     * @param values the values as loaded from the database
+     * @return a new POJO which contains the given values
+     */
+    Object decode(Map<?, ?> values) {
+        Object pojo = newInstance();
+        for (FieldCodec field : fields) {
+            if (values.containsKey(field.name)) {
+                decodeField(pojo, field, values.get(field.name));
+            }
+        }
+        return pojo;
+    }
+
+    private void decodeField(Object pojo, FieldCodec field, Object value) {
+        try {
+            Object decodedValue = field.decoder.apply(value);
+            if (field.setter != null) {
+                field.setter.invokeExact(pojo, decodedValue);
+            } else {
+                field.field.set(pojo, decodedValue);
+            }
+        } catch (Throwable e) {
+            Exceptions.handle()
+                      .error(e)
+                      .to(IndexAccess.LOG)
+                      .withSystemErrorMessage("Cannot load the field %s of the POJO %s: %s (%s)",
+                                              field.name,
+                                              type.getName())
+                      .handle();
+        }
+    }
+
+    /**
+     * Creates a new and empty instance of the POJO class.
+     *
+     * @return a new instance of the POJO class
+     */
+    Object newInstance() {
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (Throwable e) {
+            throw Exceptions.handle()
+                            .error(e)
+                            .to(IndexAccess.LOG)
+                            .withSystemErrorMessage("Cannot create an instance of the POJO %s: %s (%s)",
+                                                    type.getName())
+                            .handle();
+        }
+    }
+}
@@ -27,9 +27,14 @@ import sirius.web.security.UserContext;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -49,11 +54,26 @@ import java.util.function.Supplier;
  */
 public abstract class Property {
 
+    /**
+     * Caches the descriptors of nested entity classes used to create mappings
+     */
+    private static final Map<Class<?>, EntityDescriptor> NESTED_DESCRIPTORS = new ConcurrentHashMap<>();
+
     /**
      * Contains the underlying field for which the property was created
      */
     private final Field field;
 
+    /**
+     * Contains a pre-compiled accessor which reads the value of the underlying field
+     */
+    private final MethodHandle getter;
+
+    /**
+     * Contains a pre-compiled accessor which writes the value of the underlying field
+     */
+    private final MethodHandle setter;
+
     /**
      * Determines if <tt>null</tt> is accepted as a value for this property
      */
@@ -98,6 +118,8 @@ public abstract class Property {
     protected Property(Field field) {
         this.field = field;
         this.field.setAccessible(true);
+        this.getter = createGetter(field);
+        this.setter = createSetter(field);
 
         this.nullAllowed =
                 !field.getType().isPrimitive() && !field.isAnnotationPresent(NotNull.class) && isDefaultNullAllowed();
@@ -113,6 +135,26 @@ public abstract class Property {
                 readAnnotationValue(IndexMode.class, IndexMode::docValues, this::isDefaultDocValuesEnabled);
     }
 
+    private static MethodHandle createGetter(Field field) {
+        try {
+            return MethodHandles.lookup()
+                                .unreflectGetter(field)
+                                .asType(MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw Exceptions.handle(IndexAccess.LOG, e);
+        }
+    }
+
+    private static MethodHandle createSetter(Field field) {
+        try {
+            return MethodHandles.lookup()
+                                .unreflectSetter(field)
+                                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw Exceptions.handle(IndexAccess.LOG, e);
+        }
+    }
+
     /**
      * Initializes the property (field) of the given entity.
      *
@@ -132,6 +174,53 @@ public abstract class Property {
         return field;
     }
 
+    /**
+     * Reads the value of the underlying field of the given entity.
+     * <p>
+     * This uses a pre-compiled accessor and is therefore considerably faster than using {@link Field#get(Object)}.
+     *
+     * @param entity the entity to read the field value from
+     * @return the current value of the field
+     */
+    public Object getValue(Entity entity) {
+        try {
+            return (Object) getter.invokeExact((Object) entity);
+        } catch (Throwable e) {
+            throw Exceptions.handle(IndexAccess.LOG, e);
+        }
+    }
+
+    /**
+     * Writes the value of the underlying field of the given entity.
+     * <p>
+     * This uses a pre-compiled accessor and is therefore considerably faster than using
+     * {@link Field#set(Object, Object)}.
+     *
+     * @param entity the entity to update
+     * @param value  the new value of the field
+     */
+    public void setValue(Entity entity, Object value) {
+        try {
+            setter.invokeExact((Object) entity, value);
+        } catch (Throwable e) {
+            throw Exceptions.handle(IndexAccess.LOG, e);
+        }
+    }
+
+    /**
+     * Determines if this property has to initialize the fields of new entities.
+     *
+     * @return <tt>true</tt> if {@link #init(Entity)} is overridden, <tt>false</tt> otherwise
+     */
+    public boolean requiresInit() {
+        try {
+            return !Property.class.equals(getClass().getMethod("init", Entity.class).getDeclaringClass());
+        } catch (NoSuchMethodException e) {
+            Exceptions.ignore(e);
+            return true;
+        }
+    }
+
     /**
      * Returns a translated title for the property by resolving
      * <tt>SimpleClassName.fieldName</tt> via {@link sirius.kernel.nls.NLS}.
@@ -351,12 +440,22 @@ public abstract class Property {
      * @return the storable representation of the value
      */
     public Object writeToSource(Entity entity) {
-        try {
-            return transformToSource(field.get(entity));
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
-            return null;
-        }
+        return transformToSource(getValue(entity));
+    }
+
+    /**
+     * Writes the field value of the given entity directly into the given builder.
+     * <p>
+     * By default this writes the result of {@link #writeToSource(Entity)}. Properties which would create
+     * intermediate maps or lists to represent their value should override this and emit their JSON structure
+     * directly.
+     *
+     * @param entity  the entity which field value is to be stored
+     * @param builder the builder to write the field (name and value) to
+     * @throws IOException in case of an io error while generating the JSON
+     */
+    public void writeToSource(Entity entity, XContentBuilder builder) throws IOException {
+        builder.field(getName(), writeToSource(entity));
     }
 
     /**
@@ -369,6 +468,32 @@ public abstract class Property {
         return o;
     }
 
+    /**
+     * Transforms the given value, which is not necessarily the current field value of an entity, to the
+     * representation which is stored in the database.
+     * <p>
+     * This is used to build partial or scripted updates which bypass the entity itself.
+     *
+     * @param value the value to transform
+     * @return the storable representation of the value
+     */
+    public Object transformValueToSource(Object value) {
+        return transformToSource(value);
+    }
+
+    /**
+     * Transforms the given value from the representation which is stored in the database into a field value.
+     * <p>
+     * In contrast to {@link #readFromSource(Entity, Object)}, this doesn't touch any entity, so that the result can
+     * be applied via {@link #setValue(Entity, Object)} while the entity still detects the change.
+     *
+     * @param value the stored value to transform
+     * @return the field value represented by the given value
+     */
+    public Object transformValueFromSource(Object value) {
+        return transformFromSource(value);
+    }
+
     /**
      * Converts the given value back to its original form and stores it as the given entities field value.
      *
@@ -376,13 +501,9 @@ public abstract class Property {
      * @param value  the stored value from the database
      */
     public void readFromSource(Entity entity, Object value) {
-        try {
-            Object val = transformFromSource(value);
-            field.set(entity, val);
-            entity.setSource(field.getName(), val);
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
-        }
+        Object val = transformFromSource(value);
+        setValue(entity, val);
+        entity.setSource(field.getName(), transformToSource(val));
     }
 
     /**
@@ -424,14 +545,10 @@ public abstract class Property {
      * @param ctx    the request to read the data from
      */
     public void readFromRequest(Entity entity, WebContext ctx) {
-        try {
-            if (ctx.get(getName()).isNull()) {
-                return;
-            }
-            field.set(entity, transformFromRequest(getName(), ctx));
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
+        if (ctx.get(getName()).isNull()) {
+            return;
         }
+        setValue(entity, transformFromRequest(getName(), ctx));
     }
 
     /**
@@ -478,7 +595,8 @@ public abstract class Property {
      */
     protected void addNestedMappingProperties(XContentBuilder builder, Class<?> nestedClass) throws IOException {
         if (nestedClass.isAnnotationPresent(Indexed.class)) {
-            for (Property property : new EntityDescriptor(nestedClass).getProperties()) {
+            for (Property property : NESTED_DESCRIPTORS.computeIfAbsent(nestedClass, EntityDescriptor::new)
+                                                       .getProperties()) {
                 builder.startObject(property.getName());
                 property.addMappingProperties(builder);
                 builder.endObject();
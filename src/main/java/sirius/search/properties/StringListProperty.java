@@ -10,9 +10,7 @@ package sirius.search.properties;
 
 import com.google.common.collect.Lists;
 import sirius.kernel.di.std.Register;
-import sirius.kernel.health.Exceptions;
 import sirius.search.Entity;
-import sirius.search.IndexAccess;
 import sirius.search.annotations.ListType;
 import sirius.web.http.WebContext;
 
@@ -54,7 +52,7 @@ public class StringListProperty extends StringProperty {
 
     @Override
     public void init(Entity entity) throws IllegalAccessException {
-        getField().set(entity, new ArrayList<String>());
+        setValue(entity, new ArrayList<String>());
     }
 
     @Override
@@ -77,17 +75,13 @@ public class StringListProperty extends StringProperty {
     @SuppressWarnings("unchecked")
     @Override
     public void readFromRequest(Entity entity, WebContext ctx) {
-        try {
-            List<Object> list = (List<Object>) getField().get(entity);
-            if (list == null) {
-                list = Lists.newArrayList();
-            } else {
-                list.clear();
-            }
-            list.addAll((List<Object>) transformFromRequest(getName(), ctx));
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
+        List<Object> list = (List<Object>) getValue(entity);
+        if (list == null) {
+            list = Lists.newArrayList();
+        } else {
+            list.clear();
         }
+        list.addAll((List<Object>) transformFromRequest(getName(), ctx));
     }
 
     @Override
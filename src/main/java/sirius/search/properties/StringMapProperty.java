@@ -12,9 +12,7 @@ import org.elasticsearch.common.xcontent.XContentBuilder;
 import sirius.kernel.commons.Context;
 import sirius.kernel.commons.Strings;
 import sirius.kernel.di.std.Register;
-import sirius.kernel.health.Exceptions;
 import sirius.search.Entity;
-import sirius.search.IndexAccess;
 import sirius.search.annotations.MapType;
 import sirius.web.http.WebContext;
 
@@ -67,7 +65,7 @@ public class StringMapProperty extends StringProperty {
 
     @Override
     public void init(Entity entity) throws IllegalAccessException {
-        getField().set(entity, new HashMap<>());
+        setValue(entity, new HashMap<>());
     }
 
     @Override
@@ -144,12 +142,20 @@ public class StringMapProperty extends StringProperty {
     }
 
     @Override
-    public void readFromRequest(Entity entity, WebContext ctx) {
-        try {
-            getField().set(entity, transformFromRequest(getName(), ctx));
-        } catch (IllegalAccessException e) {
-            Exceptions.handle(IndexAccess.LOG, e);
+    public void writeToSource(Entity entity, XContentBuilder builder) throws IOException {
+        builder.startArray(getName());
+        Object map = getValue(entity);
+        if (map instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet()) {
+                builder.startObject().field(KEY, entry.getKey()).field(VALUE, entry.getValue()).endObject();
+            }
         }
+        builder.endArray();
+    }
+
+    @Override
+    public void readFromRequest(Entity entity, WebContext ctx) {
+        setValue(entity, transformFromRequest(getName(), ctx));
     }
 
     @Override
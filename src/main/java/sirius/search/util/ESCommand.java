@@ -10,6 +10,7 @@ package sirius.search.util;
 
 import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsRequest;
 import org.elasticsearch.common.settings.Settings;
+import sirius.kernel.commons.Strings;
 import sirius.kernel.commons.Values;
 import sirius.kernel.di.std.Part;
 import sirius.kernel.di.std.Register;
@@ -17,8 +18,14 @@ import sirius.kernel.health.console.Command;
 import sirius.search.Entity;
 import sirius.search.EntityDescriptor;
 import sirius.search.IndexAccess;
+import sirius.search.properties.EntityListProperty;
+import sirius.search.properties.EntityProperty;
+import sirius.search.properties.Property;
 
 import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -37,6 +44,8 @@ public class ESCommand implements Command {
             query(output, values);
         } else if ("update".equalsIgnoreCase(values.at(0).asString())) {
             update(output, values);
+        } else if ("set".equalsIgnoreCase(values.at(0).asString())) {
+            set(output, values);
         } else if ("delete".equalsIgnoreCase(values.at(0).asString())) {
             delete(output, values);
         } else if ("resave".equalsIgnoreCase(values.at(0).asString())) {
@@ -45,14 +54,18 @@ public class ESCommand implements Command {
             unbalance(output);
         } else if ("balance".equalsIgnoreCase(values.at(0).asString())) {
             balance(output);
+        } else if ("bulkload".equalsIgnoreCase(values.at(0).asString())) {
+            bulkLoad(output, values);
         } else {
             output.apply("Unknown command: %s", values.at(0));
             output.line("Use: query <type> <filter>");
             output.line(" or update <type> <filter> <field> <value> (Limit 500)");
+            output.line(" or set <type> <filter> <field> <value> (server side, without limit)");
             output.line(" or delete <type> <filter>");
-            output.line(" or resave <type> <filter>");
+            output.line(" or resave <type> <filter> [force] (unchanged entities are only written if forced)");
             output.line(" or unbalance");
             output.line(" or balance");
+            output.line(" or bulkload <type> start|finish|merge (tunes the index for an import)");
         }
     }
 
@@ -78,33 +91,99 @@ public class ESCommand implements Command {
         Class<? extends Entity> type = UpdateMappingCommand.findTypeOrReportError(output, values.at(1).asString());
         if (type != null) {
             EntityDescriptor ed = index.getDescriptor(type);
-            AtomicInteger rows = new AtomicInteger();
             String filterText = values.at(2).asString();
             if ("-".equals(filterText)) {
                 filterText = null;
             }
-            index.select(type).deliberatelyUnrouted().query(filterText).limit(500).iterateAll(e -> {
-                ed.getProperty(values.at(3).asString()).readFromSource(e, values.at(4).get());
-                index.update(e);
-                rows.incrementAndGet();
-            });
+            Property property = ed.getProperty(values.at(3).asString());
+            if (property == null) {
+                output.line("Unknown field: " + values.at(3).asString());
+                return;
+            }
+            Object value = values.at(4).get();
+            long rows = index.select(type)
+                             .deliberatelyUnrouted()
+                             .query(filterText)
+                             .limit(500)
+                             .updateEach(e -> applyValue(property, e, value));
             outputAffectedRows(output, rows);
         }
     }
 
+    private void applyValue(Property property, Entity entity, Object value) {
+        if (property instanceof EntityProperty) {
+            // References are updated in place, therefore the change isn't detected and the update has to be forced...
+            property.readFromSource(entity, value);
+            entity.forceUpdate();
+        } else if (property instanceof EntityListProperty) {
+            property.readFromSource(entity, parseIds(value));
+            entity.forceUpdate();
+        } else {
+            // The value is converted for each entity, so that mutable values aren't shared among entities. Also it is
+            // applied like a regular modification, so that the change is detected when saving...
+            property.setValue(entity, property.transformValueFromSource(value));
+        }
+    }
+
+    private List<String> parseIds(Object value) {
+        return Strings.isEmpty(value) ? Collections.emptyList() : Arrays.asList(value.toString().split(","));
+    }
+
+    private void set(Output output, Values values) {
+        Class<? extends Entity> type = UpdateMappingCommand.findTypeOrReportError(output, values.at(1).asString());
+        if (type != null) {
+            EntityDescriptor ed = index.getDescriptor(type);
+            String filterText = values.at(2).asString();
+            if ("-".equals(filterText)) {
+                filterText = null;
+            }
+            Property property = ed.getProperty(values.at(3).asString());
+            if (property == null) {
+                output.line("Unknown field: " + values.at(3).asString());
+                return;
+            }
+            long rows = index.select(type)
+                             .deliberatelyUnrouted()
+                             .query(filterText)
+                             .updateByScript()
+                             .set(property.getName(), parseValue(property, values.at(4).get()))
+                             .execute();
+            outputAffectedRows(output, rows);
+        }
+    }
+
+    /*
+     * The given text is parsed like a stored value into a field value, which is then converted again by the scripted
+     * update. References can be given as (comma separated) ids.
+     */
+    private Object parseValue(Property property, Object value) {
+        if (property instanceof EntityProperty) {
+            return value;
+        }
+        if (property instanceof EntityListProperty) {
+            return parseIds(value);
+        }
+        return property.transformValueFromSource(value);
+    }
+
     private void outputAffectedRows(Output output, AtomicInteger rows) {
+        outputAffectedRows(output, rows.get());
+    }
+
+    private void outputAffectedRows(Output output, long rows) {
         output.separator();
-        output.apply("%s rows affected", rows.get());
+        output.apply("%s rows affected", rows);
         output.blankLine();
     }
 
     private void resave(Output output, Values values) {
         Class<? extends Entity> type = UpdateMappingCommand.findTypeOrReportError(output, values.at(1).asString());
         if (type != null) {
-            AtomicInteger rows = new AtomicInteger();
-            index.select(type).deliberatelyUnrouted().query(values.at(2).asString()).iterateAll(e -> {
-                index.update(e);
-                rows.incrementAndGet();
+            boolean force = "force".equalsIgnoreCase(values.at(3).asString());
+            long rows = index.select(type).deliberatelyUnrouted().query(values.at(2).asString()).updateEach(e -> {
+                if (force) {
+                    e.forceUpdate();
+                }
             });
             outputAffectedRows(output, rows);
         }
@@ -144,6 +223,23 @@ public class ESCommand implements Command {
         output.blankLine();
     }
 
+    private void bulkLoad(Output output, Values values) {
+        Class<? extends Entity> type = UpdateMappingCommand.findTypeOrReportError(output, values.at(1).asString());
+        if (type != null) {
+            String mode = values.at(2).asString();
+            List<String> indices = Collections.singletonList(index.getIndex(type));
+            if ("start".equalsIgnoreCase(mode)) {
+                index.setBulkLoadMode(indices, true, false);
+                output.apply("Started the bulk load mode for %s", indices);
+            } else if ("finish".equalsIgnoreCase(mode) || "merge".equalsIgnoreCase(mode)) {
+                index.setBulkLoadMode(indices, false, "merge".equalsIgnoreCase(mode));
+                output.apply("Finished the bulk load mode for %s", indices);
+            } else {
+                output.line("Use: bulkload <type> start|finish|merge");
+            }
+        }
+    }
+
     @Override
     public String getDescription() {
         return "Executes Queries against Elasticsearch (use with caution!)";
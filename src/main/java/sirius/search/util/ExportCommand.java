@@ -0,0 +1,95 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search.util;
+
+import sirius.kernel.async.Tasks;
+import sirius.kernel.commons.Values;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.console.Command;
+import sirius.search.Entity;
+import sirius.search.IndexAccess;
+import sirius.search.Query;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the raw <tt>_source</tt> of all matching entities as JSON Lines into a file.
+ * <p>
+ * Files ending with <tt>.gz</tt> are compressed while being written. The export can be imported again using the
+ * {@link ImportCommand}.
+ */
+@Register
+public class ExportCommand implements Command {
+
+    @Part
+    private IndexAccess index;
+
+    @Part
+    private Tasks tasks;
+
+    @Override
+    public void execute(Output output, String... params) throws Exception {
+        Values values = Values.of(params);
+        if (values.length() < 2) {
+            output.line("Usage: export <type> <file> [query] [field1,field2,...]");
+            return;
+        }
+
+        Class<? extends Entity> type = UpdateMappingCommand.findTypeOrReportError(output, values.at(0).asString());
+        if (type != null) {
+            Query<? extends Entity> query = index.select(type).deliberatelyUnrouted();
+            if (values.at(2).isFilled()) {
+                query.query(values.at(2).asString());
+            }
+            if (values.at(3).isFilled()) {
+                query.fields(values.at(3).asString().split(","));
+            }
+            File file = new File(values.at(1).asString());
+            tasks.defaultExecutor().fork(() -> exportToFile(query, file));
+            output.apply("Exporting into %s...", file.getAbsolutePath());
+        }
+    }
+
+    private void exportToFile(Query<? extends Entity> query, File file) {
+        try (OutputStream out = open(file)) {
+            long numItems = query.exportTo(out);
+            IndexAccess.LOG.INFO("Exported %s items into %s", numItems, file.getAbsolutePath());
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to export into %s: %s (%s)", file.getAbsolutePath())
+                      .handle();
+        }
+    }
+
+    private OutputStream open(File file) throws Exception {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        if (file.getName().endsWith(".gz")) {
+            return new GZIPOutputStream(out);
+        }
+        return out;
+    }
+
+    @Override
+    public String getName() {
+        return "export";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Exports the source of entities as JSON Lines";
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search.util;
+
+import sirius.kernel.async.Tasks;
+import sirius.kernel.commons.Values;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.console.Command;
+import sirius.search.DatasetImporter;
+import sirius.search.IndexAccess;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports a JSON array or JSON Lines file into the index using a {@link DatasetImporter}.
+ * <p>
+ * Files ending with <tt>.gz</tt> are decompressed while being read.
+ */
+@Register
+public class ImportCommand implements Command {
+
+    @Part
+    private IndexAccess index;
+
+    @Part
+    private Tasks tasks;
+
+    @Override
+    public void execute(Output output, String... params) throws Exception {
+        Values values = Values.of(params);
+        if (values.length() == 0) {
+            output.line("Usage: import <file> [batchSize] [parallelism]");
+            return;
+        }
+
+        File file = new File(values.at(0).asString());
+        if (!file.exists()) {
+            output.apply("Unknown file: %s", file.getAbsolutePath());
+            return;
+        }
+
+        DatasetImporter importer = new DatasetImporter(index).tuneIndices();
+        if (values.at(1).isFilled()) {
+            importer.withBatchSize(values.at(1).asInt(1));
+        }
+        if (values.at(2).isFilled()) {
+            importer.withParallelism(values.at(2).asInt(1));
+        }
+        tasks.defaultExecutor().fork(() -> importFile(importer, file));
+        output.line("Operation has started!");
+    }
+
+    private void importFile(DatasetImporter importer, File file) {
+        try (InputStream input = open(file)) {
+            importer.importData(input);
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(IndexAccess.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to import %s: %s (%s)", file.getAbsolutePath())
+                      .handle();
+        }
+    }
+
+    private InputStream open(File file) throws Exception {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        if (file.getName().endsWith(".gz")) {
+            return new GZIPInputStream(input);
+        }
+        return input;
+    }
+
+    @Override
+    public String getName() {
+        return "import";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Imports entities from a JSON array or JSON Lines file";
+    }
+}
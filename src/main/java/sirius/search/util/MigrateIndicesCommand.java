@@ -0,0 +1,43 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search.util;
+
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.console.Command;
+import sirius.search.IndexAccess;
+
+/**
+ * Migrates all indices into new physical indices without any downtime.
+ * <p>
+ * In contrast to {@link ReIndexCommand}, the application keeps using the same index names (which become aliases of
+ * the new indices) and all writes performed during the migration are applied to the new indices as well.
+ */
+@Register
+public class MigrateIndicesCommand implements Command {
+
+    @Part
+    private IndexAccess index;
+
+    @Override
+    public void execute(Output output, String... params) throws Exception {
+        index.getSchema().migrate();
+        output.line("Operation has started!");
+    }
+
+    @Override
+    public String getName() {
+        return "migrate-indices";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Migrates all indices into new ones (e.g. to apply mapping changes) without any downtime";
+    }
+}
@@ -16,6 +16,8 @@ import sirius.search.IndexAccess;
 /**
  * Performs a re-index of all indices into new ones starting with the given index prefix instead of the
  * currently active one.
+ * <p>
+ * If a re-index was interrupted, executing the command again with the same prefix continues it.
  */
 @Register
 public class ReIndexCommand implements Command {
@@ -29,7 +31,8 @@ public class ReIndexCommand implements Command {
             output.line("Usage: reindex <newIndexPrefix>");
         } else {
             index.getSchema().reIndex(params[0]);
-            output.line("Operation has started!");
+            output.line("Operation has started! Run the command again with the same prefix to resume it if "
+                        + "it is interrupted.");
         }
     }
 
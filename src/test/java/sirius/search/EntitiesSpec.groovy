@@ -10,6 +10,8 @@ package sirius.search
 
 import com.google.common.collect.Lists
 import sirius.kernel.BaseSpecification
+import sirius.kernel.async.CallContext
+import sirius.kernel.async.TaskContext
 import sirius.kernel.async.Tasks
 import sirius.kernel.di.std.Part
 import sirius.kernel.health.HandledException
@@ -134,6 +136,169 @@ class EntitiesSpec extends BaseSpecification {
         index.refreshIfPossible(child).getParentName() == "Test1"
     }
 
+    def "updating a ref field via a bulk update works"() {
+        given:
+        def parent = new ParentEntity()
+        parent.setName("Test")
+        index.create(parent)
+        def child = new SetNullChildEntity()
+        child.getParent().setValue(parent)
+        index.create(child)
+        index.blockThreadForUpdate()
+        when:
+        parent = index.refreshOrFail(parent)
+        parent.setName("Test1")
+        index.updateBulk([parent])
+        waitForCompletion()
+        then:
+        index.refreshIfPossible(child).getParentName() == "Test1"
+    }
+
+    def "nested objects survive a round trip through writeSource and readSource"() {
+        given:
+        def nested = new POJO()
+        nested.setBoolVar(true)
+        nested.setNumberVar(42)
+        nested.setStringVar("test")
+        def entity = new NestedObjectEntity()
+        entity.setNestedObject(nested)
+        def descriptor = index.getDescriptor(NestedObjectEntity.class)
+        when:
+        def copy = (NestedObjectEntity) descriptor.newInstance()
+        descriptor.readSource(copy, descriptor.writeSource(entity))
+        then:
+        copy.getNestedObject().getBoolVar() == true
+        copy.getNestedObject().getNumberVar() == 42
+        copy.getNestedObject().getStringVar() == "test"
+    }
+
+    def "object lists survive a round trip through writeSource and readSource"() {
+        given:
+        def first = new POJO()
+        first.setStringVar("first")
+        first.setNumberVar(1)
+        def second = new POJO()
+        second.setStringVar("second")
+        second.setNumberVar(2)
+        def entity = new NestedObjectsListEntity()
+        entity.getNestedObjects().addAll([first, second])
+        def descriptor = index.getDescriptor(NestedObjectsListEntity.class)
+        when:
+        def copy = (NestedObjectsListEntity) descriptor.newInstance()
+        descriptor.readSource(copy, descriptor.writeSource(entity))
+        then:
+        copy.getNestedObjects().collect { it.getStringVar() } == ["first", "second"]
+        copy.getNestedObjects().collect { it.getNumberVar() } == [1, 2]
+    }
+
+    def "the schema provides immutable lookups for descriptors and properties"() {
+        given:
+        def schema = index.getSchema()
+        def descriptor = schema.getDescriptor(QueryEntity.class)
+        expect:
+        schema.getEntities().contains(QueryEntity.class)
+        schema.getType(descriptor.getIndex() + "-" + descriptor.getType()) == QueryEntity.class
+        descriptor.getProperty(QueryEntity.CONTENT).getName() == QueryEntity.CONTENT
+        descriptor.getProperty(QueryEntity.RANKING).getName() == QueryEntity.RANKING
+        descriptor.getProperty("unknownField") == null
+        when:
+        schema.getEntities().remove(QueryEntity.class)
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "creating the mappings again only reports changed mappings"() {
+        when:
+        def changes = index.getSchema().createMappings()
+        then:
+        changes.findAll { it.startsWith("Created") } == []
+    }
+
+    def "a re-index copies all slices and skips these when restarted"() {
+        given:
+        def entity = new QueryEntity()
+        entity.setContent("reindex")
+        index.create(entity)
+        index.blockThreadForUpdate()
+        def descriptor = index.getDescriptor(QueryEntity.class)
+        def prefix = "reindex" + System.currentTimeMillis() + "-"
+        when:
+        def task = new ReIndexTask(index.getSchema(), prefix)
+        task.run()
+        index.blockThreadForUpdate()
+        then:
+        task.isCompleted()
+        index.getClient()
+             .prepareGet(prefix + descriptor.getIndex(), descriptor.getType(), entity.getId())
+             .get()
+             .isExists()
+        index.select(ReIndexCheckpoint.class)
+             .eq(ReIndexCheckpoint.TARGET_PREFIX, prefix)
+             .eq(ReIndexCheckpoint.COMPLETED, false)
+             .count() == 0
+        when:
+        def restartedTask = new ReIndexTask(index.getSchema(), prefix)
+        restartedTask.run()
+        then:
+        restartedTask.isCompleted()
+    }
+
+    def "a cancelled re-index is not completed and leaves its slices open"() {
+        given:
+        def prefix = "reindexcancelled" + System.currentTimeMillis() + "-"
+        when:
+        TaskContext.get().cancel()
+        def task = new ReIndexTask(index.getSchema(), prefix)
+        task.run()
+        index.blockThreadForUpdate()
+        then:
+        !task.isCompleted()
+        index.select(ReIndexCheckpoint.class)
+             .eq(ReIndexCheckpoint.TARGET_PREFIX, prefix)
+             .eq(ReIndexCheckpoint.COMPLETED, true)
+             .count() == 0
+        cleanup:
+        CallContext.initialize()
+    }
+
+    def "a migration copies all documents and switches the aliases to the new indices"() {
+        given:
+        def entity = new QueryEntity()
+        entity.setContent("migration")
+        index.create(entity)
+        index.blockThreadForUpdate()
+        def indexName = index.getIndexName(index.getDescriptor(QueryEntity.class).getIndex())
+        when:
+        new IndexMigration(index.getSchema(), index, index.getIndexName("")).run()
+        then:
+        index.getClient().admin().indices().prepareAliasesExist(indexName).get().exists()
+        index.find(QueryEntity.class, entity.getId()).getContent() == "migration"
+        index.dualWriteTargets.isEmpty()
+    }
+
+    def "a bulk load restores the original settings of the index"() {
+        given:
+        def indexName = index.getIndexName(index.getDescriptor(QueryEntity.class).getIndex())
+        def refreshIntervalDuringLoad = null
+        when:
+        index.bulkLoad(QueryEntity.class, {
+            refreshIntervalDuringLoad = readIndexSetting(indexName, "index.refresh_interval")
+        } as Runnable)
+        then:
+        refreshIntervalDuringLoad == "-1"
+        readIndexSetting(indexName, "index.refresh_interval") != "-1"
+    }
+
+    def "a bulk load which cannot be started restores the indices which have already been switched"() {
+        given:
+        def indexName = index.getIndexName(index.getDescriptor(QueryEntity.class).getIndex())
+        when:
+        index.setBulkLoadMode([indexName, "unknown" + System.currentTimeMillis()], true, false)
+        then:
+        thrown(HandledException)
+        readIndexSetting(indexName, "index.refresh_interval") != "-1"
+    }
+
     def "test including/excluding from _all"() {
         when:
         def entity = new IncludeExcludeEntity()
@@ -162,12 +327,228 @@ class EntitiesSpec extends BaseSpecification {
         index.select(IncludeExcludeEntity.class).query("43").count() == 0
     }
 
+    def "atomic updates modify fields server side"() {
+        given:
+        def entity = new LongPropertyEntity()
+        entity.setValue(10L)
+        index.create(entity)
+        def list = new StringPropertiesEntity()
+        list.getStringList().add("a")
+        index.create(list)
+        when:
+        def version = index.increment(entity, "value", 5)
+        index.atomicUpdate(list).append("stringList", "b").remove("stringList", "a").execute()
+        then:
+        version == entity.getVersion()
+        entity.getValue() == 15L
+        index.refreshOrFail(entity).getValue() == 15L
+        list.getStringList() == ["b"]
+        index.refreshOrFail(list).getStringList() == ["b"]
+        when:
+        index.atomicUpdate(entity).decrement("value", 3).execute()
+        then:
+        entity.getValue() == 12L
+        index.refreshOrFail(entity).getValue() == 12L
+    }
+
+    def "updateChanged only writes modified fields"() {
+        given:
+        def entity = new StringPropertiesEntity()
+        entity.setSoloString("solo")
+        entity.getStringList().add("a")
+        index.create(entity)
+        def loaded = index.refreshOrFail(entity)
+        when:
+        loaded.setSoloString("changed")
+        index.updateChanged(loaded)
+        def fresh = index.refreshOrFail(entity)
+        then:
+        loaded.getVersion() == entity.getVersion() + 1
+        fresh.getSoloString() == "changed"
+        fresh.getStringList() == ["a"]
+    }
+
+    def "updateChanged replaces map values instead of merging them"() {
+        given:
+        def entity = new StringMapPropertyEntity()
+        entity.getStringMap().put("a", "A")
+        entity.getStringMap().put("b", "B")
+        index.create(entity)
+        def loaded = index.refreshOrFail(entity)
+        when:
+        loaded.getStringMap().remove("a")
+        index.updateChanged(loaded)
+        then:
+        index.refreshOrFail(entity).getStringMap() == ["b": "B"]
+    }
+
+    def "updateChanged fails for outdated entities"() {
+        given:
+        def entity = new StringPropertiesEntity()
+        entity.setSoloString("solo")
+        index.create(entity)
+        def first = index.refreshOrFail(entity)
+        def second = index.refreshOrFail(entity)
+        when:
+        first.setSoloString("first")
+        index.updateChanged(first)
+        second.setSoloString("second")
+        index.tryUpdateChanged(second)
+        then:
+        thrown(OptimisticLockException)
+    }
+
+    def "updating an unchanged entity is skipped unless forced"() {
+        given:
+        def entity = new StringPropertiesEntity()
+        entity.setSoloString("solo")
+        index.create(entity)
+        def loaded = index.refreshOrFail(entity)
+        when:
+        index.update(loaded)
+        then:
+        loaded.getVersion() == entity.getVersion()
+        when:
+        loaded.forceUpdate()
+        index.update(loaded)
+        then:
+        loaded.getVersion() == entity.getVersion() + 1
+        when:
+        index.update(loaded)
+        then:
+        loaded.getVersion() == entity.getVersion() + 1
+    }
+
+    def "an unchanged but outdated entity is only reported as conflict if its write is forced"() {
+        given:
+        def entity = new StringPropertiesEntity()
+        entity.setSoloString("solo")
+        index.create(entity)
+        def stale = index.refreshOrFail(entity)
+        entity.setSoloString("changed")
+        index.update(entity)
+        when:
+        index.tryUpdate(stale)
+        then:
+        notThrown(OptimisticLockException)
+        index.refreshOrFail(entity).getSoloString() == "changed"
+        when:
+        stale.forceUpdate()
+        index.tryUpdate(stale)
+        then:
+        thrown(OptimisticLockException)
+    }
+
+    def "updateMerging merges concurrent changes of different fields"() {
+        given:
+        def entity = new StringPropertiesEntity()
+        entity.setSoloString("solo")
+        index.create(entity)
+        def first = index.refreshOrFail(entity)
+        def second = index.refreshOrFail(entity)
+        when:
+        first.setSoloString("first")
+        index.update(first)
+        second.getStringList().add("second")
+        index.updateMerging(second)
+        def fresh = index.refreshOrFail(entity)
+        then:
+        fresh.getSoloString() == "first"
+        fresh.getStringList() == ["second"]
+    }
+
+    def "updateMerging fails for overlapping changes"() {
+        given:
+        def entity = new StringPropertiesEntity()
+        entity.setSoloString("solo")
+        index.create(entity)
+        def first = index.refreshOrFail(entity)
+        def second = index.refreshOrFail(entity)
+        when:
+        first.setSoloString("first")
+        index.update(first)
+        second.setSoloString("second")
+        index.tryUpdateMerging(second)
+        then:
+        thrown(OptimisticLockException)
+    }
+
+    def "updates of write behind entities are buffered until flushed"() {
+        given:
+        def entity = new WriteBehindEntity()
+        index.create(entity)
+        when:
+        for (int i = 1; i <= 10; i++) {
+            entity.setCounter(i)
+            index.update(entity)
+        }
+        then:
+        index.refreshOrFail(entity).getCounter() == 0
+        when:
+        index.flushWriteBehind()
+        then:
+        index.refreshOrFail(entity).getCounter() == 10
+        and:
+        entity.getVersion() == index.refreshOrFail(entity).getVersion()
+        when:
+        entity.setCounter(11)
+        index.update(entity)
+        index.flushWriteBehind()
+        then:
+        index.refreshOrFail(entity).getCounter() == 11
+    }
+
+    def "buffered updates of write behind entities do not overwrite concurrent modifications"() {
+        given:
+        def entity = new WriteBehindEntity()
+        index.create(entity)
+        def other = index.refreshOrFail(entity)
+        when:
+        other.setCounter(42)
+        index.tryUpdate(other)
+        and:
+        entity.setCounter(1)
+        index.update(entity)
+        index.flushWriteBehind()
+        then:
+        index.refreshOrFail(entity).getCounter() == 42
+    }
+
+    def "read only entities are loaded without source tracing and cannot be saved"() {
+        given:
+        def entity = new StringPropertiesEntity()
+        entity.setSoloString("readOnly")
+        index.create(entity)
+        when:
+        def loaded = index.findReadOnly(StringPropertiesEntity.class, entity.getId())
+        then:
+        loaded.isReadOnly()
+        !loaded.isSourceTracingEnabled()
+        loaded.getSoloString() == "readOnly"
+        when:
+        index.update(loaded)
+        then:
+        thrown(HandledException)
+    }
+
     @Part
     private static Tasks tasks
 
     /**
      * Blocks until all async index updates (cascades, ref field updates ..) have been handled
      */
+    def readIndexSetting(String indexName, String setting) {
+        return index.getClient()
+                    .admin()
+                    .indices()
+                    .prepareGetSettings(indexName)
+                    .get()
+                    .getIndexToSettings()
+                    .valuesIt()
+                    .next()
+                    .get(setting)
+    }
+
     def waitForCompletion() {
         index.blockThreadForUpdate()
         def exec = tasks.findExecutor(IndexAccess.ASYNC_CATEGORY_INDEX_INTEGRITY)
@@ -10,9 +10,12 @@ package sirius.search
 
 import sirius.kernel.BaseSpecification
 import sirius.kernel.commons.Amount
+import sirius.kernel.di.Injector
 import sirius.kernel.di.std.Part
+import sirius.kernel.health.console.Command
 import sirius.search.entities.*
 import sirius.search.properties.ESOption
+import sirius.search.util.ESCommand
 
 import java.time.LocalDate
 import java.time.LocalDateTime
@@ -485,4 +488,33 @@ class PropertiesSpec extends BaseSpecification {
         result.getNestedObjects()[1].getNumberVar() == 43
         result.getNestedObjects()[1].getStringVar() == "nested2"
     }
-}
\ No newline at end of file
+
+    def "es set converts the given text for date and enum fields"() {
+        given:
+        Command es = Injector.context().getParts(Command.class).find { it instanceof ESCommand }
+        Command.Output output = { Object... args -> null } as Command.Output
+        def date = new LocalDatePropertyEntity()
+        date.setValue(LocalDate.of(2017, 8, 3))
+        def option = new EnumPropertyEntity()
+        option.setValue(ESOption.DEFAULT)
+        index.create(date)
+        index.create(option)
+        index.blockThreadForUpdate()
+        when:
+        es.execute(output,
+                   "set",
+                   index.getDescriptor(LocalDatePropertyEntity.class).getType(),
+                   "id:" + date.getId(),
+                   "value",
+                   "2018-01-02T00:00:00")
+        es.execute(output,
+                   "set",
+                   index.getDescriptor(EnumPropertyEntity.class).getType(),
+                   "id:" + option.getId(),
+                   "value",
+                   "TRUE")
+        then:
+        index.refreshOrFail(date).getValue() == LocalDate.of(2018, 1, 2)
+        index.refreshOrFail(option).getValue() == ESOption.TRUE
+    }
+}
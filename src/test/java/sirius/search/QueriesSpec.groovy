@@ -13,6 +13,7 @@ import org.elasticsearch.index.query.functionscore.FieldValueFactorFunctionBuild
 import sirius.kernel.BaseSpecification
 import sirius.kernel.annotations.SetupOnce
 import sirius.kernel.di.std.Part
+import sirius.kernel.health.HandledException
 import sirius.search.constraints.And
 import sirius.search.constraints.Constraint
 import sirius.search.constraints.FieldEqual
@@ -21,6 +22,7 @@ import sirius.search.constraints.Or
 import sirius.search.entities.CustomAnalyzerPropertyEntity
 import sirius.search.entities.ParentEntity
 import sirius.search.entities.QueryEntity
+import sirius.search.entities.StringPropertiesEntity
 import sirius.web.controller.Page
 import sirius.search.constraints.Named
 
@@ -287,4 +289,212 @@ class QueriesSpec extends BaseSpecification {
         result.isPresent()
         result.get().isMatchedNamedQuery("matchedContent")
     }
+
+    def "projections only load the requested fields and ids can be fetched without source"() {
+        given:
+        QueryEntity e = new QueryEntity()
+        e.setContent("projection")
+        e.setRanking(42)
+        when:
+        index.update(e)
+        and:
+        index.blockThreadForUpdate()
+        QueryEntity partial = index.select(QueryEntity.class)
+                .eq(QueryEntity.CONTENT, "projection")
+                .fields(QueryEntity.RANKING)
+                .queryFirst()
+        Query<QueryEntity> query = index.select(QueryEntity.class).eq(QueryEntity.CONTENT, "projection")
+        List<String> ids = query.ids()
+        QueryEntity full = query.queryFirst()
+        then:
+        partial.getRanking() == 42
+        partial.getContent() == null
+        partial.isReadOnly()
+        and:
+        ids == [e.getId()]
+        and:
+        full.getContent() == "projection"
+        !full.isReadOnly()
+    }
+
+    def "columns are read from doc values without loading entities"() {
+        given:
+        index.select(QueryEntity.class).eq(QueryEntity.CONTENT, "columns").delete()
+        List<QueryEntity> entities = new ArrayList<>()
+        for (int i = 1; i <= 100; i++) {
+            QueryEntity e = new QueryEntity()
+            e.setContent("columns")
+            e.setRanking(i)
+            entities.add(e)
+        }
+        when:
+        index.updateBulk(entities)
+        and:
+        index.blockThreadForUpdate()
+        Query<QueryEntity> query = index.select(QueryEntity.class)
+                .eq(QueryEntity.CONTENT, "columns")
+                .columns(QueryEntity.RANKING)
+                .limit(1)
+        then:
+        index.select(QueryEntity.class).eq(QueryEntity.CONTENT, "columns").streamLongs(QueryEntity.RANKING).sum() == 5050
+        and:
+        query.queryFirst().getContent() == "columns"
+        !query.queryFirst().isReadOnly()
+    }
+
+    def "exported sources can be imported again"() {
+        given:
+        QueryEntity e = new QueryEntity()
+        e.setContent("export")
+        e.setRanking(7)
+        when:
+        index.update(e)
+        and:
+        index.blockThreadForUpdate()
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        long exported = index.select(QueryEntity.class).eq(QueryEntity.CONTENT, "export").exportTo(out)
+        and:
+        index.delete(e)
+        index.blockThreadForUpdate()
+        long imported = new DatasetImporter(index).importData(new ByteArrayInputStream(out.toByteArray()))
+        index.blockThreadForUpdate()
+        then:
+        exported == 1
+        imported == 1
+        and:
+        index.refreshOrFail(e).getRanking() == 7
+    }
+
+    def "updateEach modifies and writes all matching entities"() {
+        given:
+        QueryEntity e1 = new QueryEntity()
+        e1.setContent("mass-update")
+        e1.setRanking(1)
+        QueryEntity e2 = new QueryEntity()
+        e2.setContent("mass-update")
+        e2.setRanking(2)
+        when:
+        index.update(e1)
+        index.update(e2)
+        and:
+        index.blockThreadForUpdate()
+        long updated = index.select(QueryEntity.class)
+                            .eq(QueryEntity.CONTENT, "mass-update")
+                            .updateEach({ e -> e.setRanking(e.getRanking() + 10) })
+        then:
+        updated == 2
+        and:
+        index.refreshOrFail(e1).getRanking() == 11
+        index.refreshOrFail(e2).getRanking() == 12
+    }
+
+    def "updateEach reports entities which cannot be written"() {
+        given:
+        StringPropertiesEntity valid = new StringPropertiesEntity()
+        valid.setSoloString("mass-update-failure")
+        StringPropertiesEntity invalid = new StringPropertiesEntity()
+        invalid.setSoloString("mass-update-failure")
+        when:
+        index.update(valid)
+        index.update(invalid)
+        and:
+        index.blockThreadForUpdate()
+        // A keyword longer than 32766 bytes is rejected by ElasticSearch...
+        index.select(StringPropertiesEntity.class)
+             .eq("soloString", "mass-update-failure")
+             .updateEach({ e -> e.setSoloString(e.getId() == invalid.getId() ? "x" * 40000 : "mass-update-success") })
+        then:
+        thrown(HandledException)
+        and:
+        index.refreshOrFail(valid).getSoloString() == "mass-update-success"
+        index.refreshOrFail(invalid).getSoloString() == "mass-update-failure"
+    }
+
+    def "updateByScript sets fields of all matching entities on the server"() {
+        given:
+        QueryEntity e = new QueryEntity()
+        e.setContent("update-by-script")
+        e.setRanking(1)
+        when:
+        index.update(e)
+        and:
+        index.blockThreadForUpdate()
+        long updated = index.select(QueryEntity.class)
+                            .eq(QueryEntity.CONTENT, "update-by-script")
+                            .updateByScript([(QueryEntity.RANKING): 42])
+        then:
+        updated == 1
+        and:
+        index.refreshOrFail(e).getRanking() == 42
+    }
+
+    def "a batch executes several queries using a single request"() {
+        given:
+        QueryEntity e = new QueryEntity()
+        e.setContent("batch")
+        e.setRanking(3)
+        when:
+        index.update(e)
+        and:
+        index.blockThreadForUpdate()
+        QueryBatch batch = index.batch()
+        def count = batch.count(index.select(QueryEntity.class).eq(QueryEntity.CONTENT, "batch"))
+        def list = batch.queryResultList(index.select(QueryEntity.class).eq(QueryEntity.CONTENT, "batch"))
+        def failed = batch.count(index.select(QueryEntity.class).fail())
+        batch.execute()
+        then:
+        count.get() == 1
+        list.get().size() == 1
+        list.get().getResults().get(0).getRanking() == 3
+        failed.get() == 0
+    }
+
+    def "a multi type query returns entities of all requested classes"() {
+        given:
+        QueryEntity e = new QueryEntity()
+        e.setContent("multi-type")
+        ParentEntity p = new ParentEntity()
+        p.setName("multi-type")
+        when:
+        index.update(e)
+        index.update(p)
+        and:
+        index.blockThreadForUpdate()
+        List<Entity> result = index.selectAll(QueryEntity.class, ParentEntity.class)
+                                   .where(Or.on(FieldEqual.on(IndexAccess.ID_FIELD, e.getId()),
+                                                FieldEqual.on(IndexAccess.ID_FIELD, p.getId())))
+                                   .queryList()
+        then:
+        result.size() == 2
+        result.find { it instanceof QueryEntity }.getContent() == "multi-type"
+        result.find { it instanceof ParentEntity }.getName() == "multi-type"
+    }
+
+    def "a result list provides the hit count and facets before its results are accessed"() {
+        given:
+        QueryEntity e1 = new QueryEntity()
+        e1.setContent("lazy-result")
+        e1.setRanking(1)
+        QueryEntity e2 = new QueryEntity()
+        e2.setContent("lazy-result")
+        e2.setRanking(2)
+        when:
+        index.update(e1)
+        index.update(e2)
+        and:
+        index.blockThreadForUpdate()
+        ResultList<QueryEntity> result = index.select(QueryEntity.class)
+                                              .eq(QueryEntity.CONTENT, "lazy-result")
+                                              .addTermFacet(QueryEntity.RANKING, (String) null)
+                                              .orderByAsc(QueryEntity.RANKING)
+                                              .queryResultList()
+        then:
+        result.getTotalNumberOfHits() == 2
+        result.size() == 2
+        result.getFacets().size() == 1
+        result.getFacets().get(0).getItems().size() == 2
+        result.getAggregations().containsKey(QueryEntity.RANKING)
+        and:
+        result.getResults().collect { it.getRanking() } == [1, 2]
+    }
 }
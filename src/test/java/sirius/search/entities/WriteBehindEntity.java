@@ -0,0 +1,26 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.search.entities;
+
+import sirius.search.Entity;
+import sirius.search.annotations.Indexed;
+
+@Indexed(index = "test", writeBehind = true)
+public class WriteBehindEntity extends Entity {
+
+    private long counter;
+
+    public long getCounter() {
+        return counter;
+    }
+
+    public void setCounter(long counter) {
+        this.counter = counter;
+    }
+}